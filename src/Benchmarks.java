@@ -0,0 +1,438 @@
+import java.awt.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The Benchmarks class measures the hot paths of the simulation, headless
+ * Every benchmark builds fresh state from fixed seeds before each iteration (untimed), runs warmup
+ * iterations to let the JIT settle, then reports the mean and spread of the measured iterations,
+ * so two runs on the same machine can be compared to catch a regression.
+ * Options (system properties):
+ *  bench.filter : only run benchmarks whose name contains this text
+ *  bench.warmup / bench.iterations : number of warmup / measured iterations (3 / 5)
+ *  bench.time : length of a timed iteration in milliseconds (1000)
+ *  bench.csv : also write the results to this CSV file
+ *  bench.fork : each benchmark runs in its own JVM, like JMH forks (true), false runs them all in this one
+ * Example: java -Dbench.filter=attemptMove -Dbench.csv=before.csv Benchmarks
+ */
+public class Benchmarks {
+
+    private static final long SEED = 42;
+
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final long ITERATION_NANOS = Long.getLong("bench.time", 1000) * 1_000_000L;
+
+    private static final String RESULT = "bench-result"; // Prefix of the line a forked JVM reports on
+
+    private static volatile long sink; // Results are written here so the JIT cannot drop the work
+
+    /**
+     * The timed part of one iteration, returns the number of operations it did
+     */
+    private interface Iteration {
+        long run() throws Exception;
+    }
+
+    /**
+     * Builds the state of one iteration, not timed
+     */
+    private interface Setup {
+        Iteration create() throws Exception;
+    }
+
+    private static final class Benchmark {
+        final String name;
+        final Setup setup;
+
+        Benchmark(String name, Setup setup) {
+            this.name = name;
+            this.setup = setup;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String filter = System.getProperty("bench.filter", "");
+        List<Benchmark> benchmarks = new ArrayList<>();
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (double density : new double[]{ 0.01, 0.10, 0.50 }) {
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                benchmarks.add(attemptMove(512, density, threads, false));
+            }
+        }
+        // Same as density 0.10 without metrics, to check what recording them costs
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            benchmarks.add(attemptMove(512, 0.10, threads, true));
+        }
+        // Same density, each region's worker owning its band of rows
+        for (int regions = 1; regions <= cores; regions *= 2) {
+            benchmarks.add(regionSteps(512, 0.10, regions));
+        }
+        // Half the cells taken: how many steps of each movement policy end in a move
+        for (String policy : new String[]{ "blind", "random", "wall", "seek" }) {
+            benchmarks.add(successfulMoves(512, 0.50, policy));
+        }
+        // What the moving threads pay for the event log reading every change behind them
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            benchmarks.add(publishEvents(threads));
+        }
+        for (MazeGenerator.Algorithm algorithm : MazeGenerator.Algorithm.values()) {
+            benchmarks.add(generateMaze(1001, algorithm));
+        }
+        benchmarks.add(spawnCollectible(1000, 10_000));
+        benchmarks.add(placeRobots(512, 1.00));
+        benchmarks.add(simulatedMinute(1000));
+        benchmarks.add(getRobotAt(1000, 0.10));
+
+        String only = System.getProperty("bench.run"); // Set in a forked JVM: run this benchmark only
+        if (only != null) {
+            for (Benchmark benchmark : benchmarks) {
+                if (benchmark.name.equals(only)) {
+                    double[] result = summarize(measure(benchmark));
+                    System.out.printf(Locale.ROOT, "%s %f %f%n", RESULT, result[0], result[1]);
+                }
+            }
+            return;
+        }
+
+        boolean fork = !"false".equals(System.getProperty("bench.fork"));
+        System.out.printf("JVM %s, %d cores, %d warmup + %d iterations, %s%n",
+                System.getProperty("java.version"), cores, WARMUP, ITERATIONS,
+                fork ? "one JVM per benchmark" : "single JVM");
+        System.out.printf("%-40s %14s %12s %8s%n", "benchmark", "ops/s", "ns/op", "+-%");
+        List<String> csv = new ArrayList<>();
+        csv.add("benchmark,ops_per_s,ns_per_op,error_pct");
+        for (Benchmark benchmark : benchmarks) {
+            if (!benchmark.name.contains(filter)) continue;
+            double[] result = fork ? runForked(benchmark) : summarize(measure(benchmark));
+            double mean = result[0], error = result[1];
+            System.out.printf(Locale.ROOT, "%-40s %14.0f %12.1f %8.1f%n", benchmark.name, 1e9 / mean, mean, error);
+            csv.add(String.format(Locale.ROOT, "%s,%.0f,%.1f,%.1f", benchmark.name, 1e9 / mean, mean, error));
+        }
+        String csvFile = System.getProperty("bench.csv");
+        if (csvFile != null) {
+            writeCsv(csvFile, csv);
+        }
+    }
+
+    /**
+     * Runs one benchmark in a new JVM with the same options, so the JIT profile of one benchmark
+     * (e.g. a branch never taken) cannot slow down the next one
+     * Returns { mean ns/op, error % }
+     */
+    private static double[] runForked(Benchmark benchmark) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-Dbench.run=" + benchmark.name);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Benchmarks.class.getName());
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        double[] result = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(RESULT)) {
+                    String[] parts = line.split(" ");
+                    result = new double[]{ Double.parseDouble(parts[1]), Double.parseDouble(parts[2]) };
+                } else {
+                    System.out.println(line); // Errors of the forked JVM
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("Benchmark failed in its JVM: " + benchmark.name);
+        }
+        return result;
+    }
+
+    // Returns { mean, error % } of the iteration results (error: standard deviation relative to the mean)
+    private static double[] summarize(double[] nsPerOp) {
+        double mean = 0;
+        for (double v : nsPerOp) mean += v;
+        mean /= nsPerOp.length;
+        double variance = 0;
+        for (double v : nsPerOp) variance += (v - mean) * (v - mean);
+        double error = nsPerOp.length > 1 ? 100 * Math.sqrt(variance / (nsPerOp.length - 1)) / mean : 0;
+        return new double[]{ mean, error };
+    }
+
+    // Runs the warmup and measured iterations, returns the ns per operation of each measured one
+    private static double[] measure(Benchmark benchmark) throws Exception {
+        double[] result = new double[ITERATIONS];
+        for (int i = -WARMUP; i < ITERATIONS; i++) {
+            Iteration iteration = benchmark.setup.create();
+            System.gc(); // Keep the garbage of the setup out of the measurement
+            long start = System.nanoTime();
+            long ops = iteration.run();
+            long elapsed = System.nanoTime() - start;
+            if (i >= 0) result[i] = elapsed / (double) Math.max(1, ops);
+        }
+        return result;
+    }
+
+    private static void writeCsv(String file, List<String> lines) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file)))) {
+            for (String line : lines) out.println(line);
+        }
+    }
+
+    // ------------------ Benchmarks ------------------
+
+    /**
+     * Robot.attemptMove with the given share of cells taken by robots, robots split between threads
+     * Every thread moves its own robots in random directions for one iteration time
+     * metrics : robots record their moves into SimulationMetrics
+     */
+    private static Benchmark attemptMove(int size, double density, int threads, boolean metrics) {
+        String name = String.format(Locale.ROOT, "attemptMove density=%.2f threads=%d%s",
+                density, threads, metrics ? " metrics" : "");
+        return new Benchmark(name, () -> {
+            GridModel grid = new GridModel(size, size);
+            Robot[] robots = createRobots(grid, (int) (size * size * density));
+            if (metrics) {
+                SimulationMetrics recorder = new SimulationMetrics();
+                for (Robot robot : robots) robot.setMetrics(recorder);
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            return () -> {
+                try {
+                    CountDownLatch go = new CountDownLatch(1);
+                    List<Future<Long>> moves = new ArrayList<>();
+                    for (int t = 0; t < threads; t++) {
+                        int first = t;
+                        int owned = (robots.length - first + threads - 1) / threads;
+                        if (owned <= 0) continue;
+                        moves.add(pool.submit(() -> {
+                            SplittableRandom random = new SplittableRandom(SEED + first);
+                            go.await();
+                            long end = System.nanoTime() + ITERATION_NANOS;
+                            long count = 0, moved = 0;
+                            while (System.nanoTime() < end) {
+                                for (int k = 0; k < 256; k++) {
+                                    // Thread t moves robots t, t + threads, t + 2 * threads...
+                                    int i = first + threads * random.nextInt(owned);
+                                    Robot robot = robots[i];
+                                    int dir = random.nextInt(4);
+                                    int row = robot.getRow() + (dir == 0 ? -1 : dir == 1 ? 1 : 0);
+                                    int col = robot.getCol() + (dir == 2 ? -1 : dir == 3 ? 1 : 0);
+                                    if (robot.attemptMove(row, col)) moved++;
+                                }
+                                count += 256;
+                            }
+                            sink += moved;
+                            return count;
+                        }));
+                    }
+                    go.countDown();
+                    long total = 0;
+                    for (Future<Long> f : moves) total += f.get();
+                    return total;
+                } finally {
+                    pool.shutdown();
+                }
+            };
+        });
+    }
+
+    /**
+     * Robots without move delay stepping on a RegionScheduler for one iteration time, counted in steps
+     * (handoffs across the region borders included)
+     */
+    private static Benchmark regionSteps(int size, double density, int regions) {
+        String name = String.format(Locale.ROOT, "regionSteps density=%.2f regions=%d", density, regions);
+        return new Benchmark(name, () -> {
+            GridModel grid = new GridModel(size, size);
+            Robot[] robots = createRobots(grid, (int) (size * size * density));
+            return () -> {
+                RegionScheduler scheduler = new RegionScheduler(regions);
+                try {
+                    for (Robot robot : robots) scheduler.start(robot);
+                    long start = scheduler.getSteps();
+                    Thread.sleep(ITERATION_NANOS / 1_000_000L);
+                    return scheduler.getSteps() - start;
+                } finally {
+                    scheduler.shutdown();
+                }
+            };
+        });
+    }
+
+    /**
+     * Robot.step on random robots for one iteration time, one thread, counted in steps that moved the robot
+     * (the failed ones cost time but are not counted)
+     */
+    private static Benchmark successfulMoves(int size, double density, String policy) {
+        String name = String.format(Locale.ROOT, "successfulMoves policy=%s density=%.2f", policy, density);
+        return new Benchmark(name, () -> {
+            GridModel grid = new GridModel(size, size);
+            Robot[] robots = createRobots(grid, (int) (size * size * density));
+            for (Robot robot : robots) robot.setMovementPolicy(MovementPolicy.forName(policy));
+            return () -> {
+                SplittableRandom random = new SplittableRandom(SEED);
+                long end = System.nanoTime() + ITERATION_NANOS;
+                long moved = 0;
+                while (System.nanoTime() < end) {
+                    for (int k = 0; k < 256; k++) {
+                        Robot robot = robots[random.nextInt(robots.length)];
+                        int row = robot.getRow(), col = robot.getCol();
+                        robot.step();
+                        if (robot.getRow() != row || robot.getCol() != col) moved++;
+                    }
+                }
+                return Math.max(1, moved);
+            };
+        });
+    }
+
+    /**
+     * EventBus.robotMoved from the given number of threads for one iteration time, with one lossless
+     * subscriber reading on its own thread (held back publishers included)
+     */
+    private static Benchmark publishEvents(int threads) {
+        return new Benchmark("publishEvents threads=" + threads, () -> {
+            EventBus events = new EventBus(1 << 16);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            return () -> {
+                EventBus.Subscription reader = events.subscribe(
+                        (sequence, type, flags, id, row, col) -> sink += id, EventBus.ALL, true).start("bench-reader");
+                try {
+                    CountDownLatch go = new CountDownLatch(1);
+                    List<Future<Long>> published = new ArrayList<>();
+                    for (int t = 0; t < threads; t++) {
+                        int id = t + 1;
+                        published.add(pool.submit(() -> {
+                            go.await();
+                            long end = System.nanoTime() + ITERATION_NANOS;
+                            long count = 0;
+                            while (System.nanoTime() < end) {
+                                for (int k = 0; k < 256; k++) {
+                                    events.robotMoved(id, k, k, (k & 7) == 0);
+                                }
+                                count += 256;
+                            }
+                            return count;
+                        }));
+                    }
+                    go.countDown();
+                    long total = 0;
+                    for (Future<Long> f : published) total += f.get();
+                    return total;
+                } finally {
+                    reader.close();
+                    pool.shutdown();
+                }
+            };
+        });
+    }
+
+    /**
+     * Simulation.generateMaze (what RobotGrid.onGenerateMaze runs), from generation to the committed grid
+     */
+    private static Benchmark generateMaze(int size, MazeGenerator.Algorithm algorithm) {
+        return new Benchmark("generateMaze " + algorithm + " " + size + "x" + size, () -> {
+            Simulation simulation = new Simulation(size, size, 0, new TickEngine(SEED, false), SEED);
+            return () -> {
+                simulation.generateMaze(algorithm, SEED);
+                return 1;
+            };
+        });
+    }
+
+    /**
+     * Simulation.spawnCollectible on a grid with a few robots, a fixed number of spawns per iteration
+     */
+    private static Benchmark spawnCollectible(int size, int spawns) {
+        return new Benchmark("spawnCollectible " + size + "x" + size, () -> {
+            Simulation simulation = new Simulation(size, size, 0, new TickEngine(SEED, false), SEED);
+            for (int i = 0; i < 100; i++) simulation.addRobot(Color.RED);
+            return () -> {
+                for (int i = 0; i < spawns; i++) {
+                    simulation.spawnCollectible();
+                }
+                return spawns;
+            };
+        });
+    }
+
+    /**
+     * Robot construction (placement on a random free cell) until the given share of cells is taken
+     */
+    private static Benchmark placeRobots(int size, double density) {
+        return new Benchmark(String.format(Locale.ROOT, "placeRobots density=%.2f", density), () -> {
+            int count = (int) (size * size * density);
+            return () -> {
+                sink += createRobots(new GridModel(size, size), count).length;
+                return count;
+            };
+        });
+    }
+
+    /**
+     * One simulated minute of robots with move delays spread over 50 - 500 ms on the timing wheel,
+     * counted in robot steps
+     */
+    private static Benchmark simulatedMinute(int robots) {
+        return new Benchmark("simulatedMinute robots=" + robots, () -> {
+            TimingWheelScheduler scheduler = new TimingWheelScheduler(0);
+            Simulation simulation = new Simulation(512, 512, 0, scheduler, SEED);
+            simulation.start();
+            long steps = 0;
+            for (int i = 0; i < robots; i++) {
+                int delay = 50 + 450 * i / robots;
+                simulation.addRobot(Color.RED).setMoveDelay(delay);
+                steps += 60_000 / delay;
+            }
+            long count = steps;
+            return () -> {
+                scheduler.runFor(60_000);
+                return count;
+            };
+        });
+    }
+
+    /**
+     * GridModel.getRobotAt on random cells, with the given share of cells taken by robots
+     */
+    private static Benchmark getRobotAt(int size, double density) {
+        return new Benchmark(String.format(Locale.ROOT, "getRobotAt density=%.2f", density), () -> {
+            GridModel grid = new GridModel(size, size);
+            createRobots(grid, (int) (size * size * density));
+            return () -> {
+                SplittableRandom random = new SplittableRandom(SEED);
+                long end = System.nanoTime() + ITERATION_NANOS;
+                long count = 0, found = 0;
+                while (System.nanoTime() < end) {
+                    for (int k = 0; k < 1024; k++) {
+                        if (grid.getRobotAt(random.nextInt(size), random.nextInt(size)) != null) found++;
+                    }
+                    count += 1024;
+                }
+                sink += found;
+                return count;
+            };
+        });
+    }
+
+    private static Robot[] createRobots(GridModel grid, int count) {
+        Robot[] robots = new Robot[Math.max(1, count)];
+        for (int i = 0; i < robots.length; i++) {
+            robots[i] = new Robot(Color.RED, grid, 0, null, SEED + i);
+        }
+        return robots;
+    }
+}
@@ -0,0 +1,527 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The CommandServer class lets remote controllers drive robots by id over TCP, like the arrow keys do for the
+ * selected robot, and streams the positions of the robots they follow back to them
+ * A few worker threads each run a Selector over their share of the connections, so thousands of controllers
+ * cost no thread of their own. Requests are handled on the worker as soon as a whole frame has arrived, and
+ * replies queue in a per connection buffer written when the socket takes them; a controller that does not
+ * read its replies stops being read until it does.
+ * Protocol, big-endian; every frame is a type byte, an unsigned short count n, then n entries:
+ *  controller -> server
+ *   TAKE    n x id : puts the robots under manual control of this connection, until RELEASE or disconnect
+ *   MOVE    n x (id, direction byte 0 up 1 down 2 left 3 right) : moves robots held by this connection
+ *   RELEASE n x id : gives the robots back to their automatic moves
+ *   WATCH   n x id : follows the robots without controlling them (taken robots are followed too)
+ *  server -> controller
+ *   the reply to a request: same type and n, then n x (id, ok byte, row, col) in the order of the request
+ *   (ok: taken, moved, released, or exists; row = col = -1 for an unknown robot)
+ *   POSITIONS n x (id, row, col) : every period ms, the followed robots that moved since the last one;
+ *   row = col = -1 once for a robot that left the grid or was reset, it is no longer followed or held
+ * Without a display, main serves a headless simulation to loopback controllers and reports their throughput
+ */
+public class CommandServer implements AutoCloseable {
+
+    // Frame types
+    public static final byte TAKE = 1;
+    public static final byte MOVE = 2;
+    public static final byte RELEASE = 3;
+    public static final byte WATCH = 4;
+    public static final byte POSITIONS = 5;
+
+    public static final int MAX_COUNT = 0xFFFF; // Entries per frame
+
+    public static final int HEADER = 3;         // Type, count
+    public static final int RESULT_ENTRY = 13;  // Id, ok, row, col
+    public static final int POSITION_ENTRY = 12; // Id, row, col
+
+    private static final int OUTPUT_LIMIT = 1 << 20; // Replies waiting for a controller before it is no longer read
+
+    private final GridModel grid;
+
+    private final ServerSocketChannel server;
+
+    private final Worker[] workers;
+
+    private final long period; // Ms between two position updates
+
+    private final ConcurrentHashMap<Integer, Connection> holders = new ConcurrentHashMap<>(); // Robot id -> controller
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final LongAdder commands = new LongAdder(); // Request entries handled
+
+    private final LongAdder updates = new LongAdder(); // Position entries sent
+
+    private volatile boolean running = true;
+
+    /**
+     * Listens on the loopback interface (port 0 picks a free port, see getPort), with the given number of
+     * worker threads, sending position updates every periodMillis
+     */
+    public CommandServer(GridModel grid, int port, int threads, long periodMillis) throws IOException {
+        this.grid = grid;
+        this.period = Math.max(1, periodMillis);
+        server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.configureBlocking(false);
+        workers = new Worker[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) workers[i] = new Worker(i);
+        server.register(workers[0].selector, SelectionKey.OP_ACCEPT);
+        for (Worker worker : workers) worker.thread.start();
+    }
+
+    public int getPort() { return server.socket().getLocalPort(); }
+
+    public int getConnectionCount() { return connections.get(); }
+
+    public long getCommandCount() { return commands.sum(); }
+
+    public long getUpdateCount() { return updates.sum(); }
+
+    // Stops the workers, drops every connection and gives the held robots back
+    @Override
+    public void close() throws IOException {
+        running = false;
+        for (Worker worker : workers) worker.selector.wakeup();
+        server.close();
+    }
+
+    // ------------------ Workers ------------------
+
+    /**
+     * A thread and the selector of its connections; worker 0 also accepts the new ones and deals them out
+     */
+    private final class Worker {
+        final Thread thread;
+        final Selector selector;
+        final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>(); // Dealt to this worker
+        final List<Connection> owned = new ArrayList<>();
+        int dealt; // Connections dealt out so far, worker 0 only
+
+        Worker(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this::work, "command-" + index);
+            thread.setDaemon(true);
+        }
+
+        private void work() {
+            long nextPush = System.currentTimeMillis() + period;
+            try {
+                while (running) {
+                    selector.select(Math.max(1, nextPush - System.currentTimeMillis()));
+                    SocketChannel channel;
+                    while ((channel = accepted.poll()) != null) register(channel);
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            try {
+                                accept();
+                            } catch (IOException e) {
+                                System.err.println("Command server cannot accept: " + e); // E.g. out of file descriptors
+                            }
+                            continue;
+                        }
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) connection.read();
+                            if (key.isValid() && key.isWritable()) connection.flush();
+                        } catch (IOException e) {
+                            connection.close(); // Controller gone
+                        }
+                    }
+                    if (System.currentTimeMillis() >= nextPush) {
+                        nextPush = System.currentTimeMillis() + period;
+                        for (int i = owned.size() - 1; i >= 0; i--) {
+                            Connection connection = owned.get(i);
+                            try {
+                                connection.push();
+                            } catch (IOException e) {
+                                connection.close();
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Command worker stopped: " + e);
+            } finally {
+                for (int i = owned.size() - 1; i >= 0; i--) owned.get(i).close();
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    // Closing anyway
+                }
+            }
+        }
+
+        // Takes every pending connection, the workers get them in turn
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Worker worker = workers[dealt++ % workers.length];
+                if (worker == this) {
+                    register(channel);
+                } else {
+                    worker.accepted.add(channel);
+                    worker.selector.wakeup();
+                }
+            }
+        }
+
+        private void register(SocketChannel channel) throws IOException {
+            Connection connection = new Connection(this, channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            owned.add(connection);
+            connections.incrementAndGet();
+        }
+    }
+
+    // ------------------ Connections ------------------
+
+    // A robot a controller follows, and what it was last told about it
+    private static final class Watch {
+        final Robot robot;
+        final int life; // Life of the robot when it was first followed, a reset ends the watch
+        int row, col;   // Last position sent
+        boolean held;
+
+        Watch(Robot robot) {
+            this.robot = robot;
+            this.life = robot.getLife();
+            this.row = robot.getRow();
+            this.col = robot.getCol();
+        }
+    }
+
+    /**
+     * One controller, only touched by the thread of its worker
+     */
+    private final class Connection {
+        final Worker worker;
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(4096);   // Received, not handled yet (write mode)
+        ByteBuffer out = ByteBuffer.allocate(4096);  // To be sent (write mode)
+        final HashMap<Integer, Watch> watched = new HashMap<>();
+        boolean closed;
+
+        Connection(Worker worker, SocketChannel channel) {
+            this.worker = worker;
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            int size;
+            while ((size = frameSize()) > 0 && in.remaining() >= size) handle();
+            in.compact();
+            if (size < 0) {
+                close(); // Unknown frame type, the stream cannot be followed any more
+                return;
+            }
+            if (size > in.capacity()) in = grow(in, size);
+            flush();
+        }
+
+        // Size of the frame at the read position, 0 if its header is not complete, -1 for an unknown type
+        private int frameSize() {
+            if (in.remaining() < HEADER) return 0;
+            int count = in.getShort(in.position() + 1) & 0xFFFF;
+            switch (in.get(in.position())) {
+                case TAKE: case RELEASE: case WATCH: return HEADER + 4 * count;
+                case MOVE: return HEADER + 5 * count;
+                default: return -1;
+            }
+        }
+
+        // Handles the whole frame at the read position and queues its reply
+        private void handle() {
+            byte type = in.get();
+            int count = in.getShort() & 0xFFFF;
+            reserve(HEADER + count * RESULT_ENTRY);
+            out.put(type).putShort((short) count);
+            for (int i = 0; i < count; i++) {
+                int id = in.getInt();
+                Robot robot = grid.getRobot(id);
+                boolean ok = false;
+                switch (type) {
+                    case MOVE:
+                        int direction = in.get();
+                        Robot mine = held(id);
+                        ok = mine != null && direction >= 0 && direction < 4 && mine.manualMove(direction);
+                        break;
+                    case TAKE:
+                        ok = robot != null && take(id, robot);
+                        break;
+                    case RELEASE:
+                        ok = release(id);
+                        break;
+                    case WATCH:
+                        ok = robot != null && robot.isRunning() && watch(id, robot) != null;
+                        break;
+                }
+                out.putInt(id).put((byte) (ok ? 1 : 0));
+                out.putInt(robot != null ? robot.getRow() : -1).putInt(robot != null ? robot.getCol() : -1);
+            }
+            commands.add(count);
+        }
+
+        // The robot if this connection holds it in its current life, null otherwise
+        private Robot held(int id) {
+            Watch w = watched.get(id);
+            return w != null && w.held && w.robot.isRunning(w.life) ? w.robot : null;
+        }
+
+        private boolean take(int id, Robot robot) {
+            if (!robot.isRunning()) return false;
+            Connection holder = holders.putIfAbsent(id, this);
+            if (holder != null && holder != this) {
+                if (!holder.closed) return false;
+                if (!holders.replace(id, holder, this)) return false; // Another controller was quicker
+            }
+            Watch w = watch(id, robot);
+            if (w == null) {
+                holders.remove(id, this);
+                return false;
+            }
+            w.held = true;
+            robot.setManualControl(true); // Also drops its route and waits for a step under way
+            return true;
+        }
+
+        private boolean release(int id) {
+            Watch w = watched.get(id);
+            if (w == null || !w.held) return false;
+            watched.remove(id);
+            holders.remove(id, this);
+            if (w.robot.isRunning(w.life)) w.robot.setManualControl(false);
+            return true;
+        }
+
+        // Follows the robot from now on, null if its watch is from an earlier life
+        private Watch watch(int id, Robot robot) {
+            Watch w = watched.get(id);
+            if (w != null && w.life != robot.getLife()) return null; // Ended at the next update
+            if (w == null) {
+                if (watched.size() == MAX_COUNT) return null;
+                w = new Watch(robot);
+                watched.put(id, w);
+            }
+            return w;
+        }
+
+        // Queues the positions of the followed robots that moved since the last update
+        void push() throws IOException {
+            if (watched.isEmpty() || out.position() > OUTPUT_LIMIT) return; // Sent later, from where they are then
+            int frame = -1, count = 0;
+            for (Iterator<HashMap.Entry<Integer, Watch>> it = watched.entrySet().iterator(); it.hasNext(); ) {
+                HashMap.Entry<Integer, Watch> entry = it.next();
+                Watch w = entry.getValue();
+                int row = w.robot.getRow(), col = w.robot.getCol();
+                boolean gone = !w.robot.isRunning(w.life);
+                if (!gone && row == w.row && col == w.col) continue;
+                if (frame < 0 || count == MAX_COUNT) {
+                    if (frame >= 0) out.putShort(frame + 1, (short) count);
+                    reserve(HEADER + POSITION_ENTRY * Math.min(watched.size(), MAX_COUNT));
+                    frame = out.position();
+                    out.put(POSITIONS).putShort((short) 0);
+                    count = 0;
+                }
+                if (gone) {
+                    out.putInt(entry.getKey()).putInt(-1).putInt(-1);
+                    if (w.held) holders.remove(entry.getKey(), this);
+                    it.remove();
+                } else {
+                    out.putInt(entry.getKey()).putInt(row).putInt(col);
+                    w.row = row;
+                    w.col = col;
+                }
+                count++;
+                updates.increment();
+            }
+            if (frame >= 0) {
+                out.putShort(frame + 1, (short) count);
+                flush();
+            }
+        }
+
+        // Writes what the socket takes; reads wait while too much is queued
+        void flush() throws IOException {
+            if (closed) return;
+            if (out.position() > 0) {
+                out.flip();
+                channel.write(out);
+                out.compact();
+            }
+            int interest = out.position() > 0 ? SelectionKey.OP_WRITE : 0;
+            if (out.position() <= OUTPUT_LIMIT) interest |= SelectionKey.OP_READ;
+            if (key.interestOps() != interest) key.interestOps(interest);
+        }
+
+        private void reserve(int bytes) {
+            if (out.remaining() < bytes) out = grow(out, out.position() + bytes);
+        }
+
+        // Drops the connection and gives its robots back to their automatic moves
+        void close() {
+            if (closed) return;
+            closed = true;
+            for (HashMap.Entry<Integer, Watch> entry : watched.entrySet()) {
+                Watch w = entry.getValue();
+                if (w.held && holders.remove(entry.getKey(), this) && w.robot.isRunning(w.life)) {
+                    w.robot.setManualControl(false);
+                }
+            }
+            watched.clear();
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Gone anyway
+            }
+            worker.owned.remove(this);
+            connections.decrementAndGet();
+        }
+    }
+
+    // A larger buffer in write mode with the same content
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    // ------------------ Loopback load ------------------
+
+    /**
+     * Serves a headless simulation and connects command.clients controllers to it over loopback, each taking
+     * command.robots robots and moving them in batches as fast as the replies come back
+     * Properties:
+     *  command.port : port to listen on, 0 picks a free one (0)
+     *  command.threads : worker threads of the server (2)
+     *  command.period : ms between position updates (50)
+     *  command.clients : controllers (1000)
+     *  command.robots : robots taken per controller (4)
+     *  command.seconds : run time (10)
+     *  robot.rows, robot.cols : grid size (200 x 200)
+     *  robot.count : robots, at least one per taken robot (clients x robots, then one in ten more)
+     * Example: java -Dcommand.clients=5000 -Dcommand.threads=4 CommandServer
+     */
+    public static void main(String[] args) throws Exception {
+        int clients = Integer.getInteger("command.clients", 1000);
+        int perClient = Integer.getInteger("command.robots", 4);
+        int seconds = Integer.getInteger("command.seconds", 10);
+        int rows = Integer.getInteger("robot.rows", 200);
+        int cols = Integer.getInteger("robot.cols", 200);
+        int count = Integer.getInteger("robot.count", clients * perClient * 11 / 10);
+
+        Simulation simulation = new Simulation(rows, cols, count, new ExecutorRobotScheduler(1), 42);
+        simulation.start();
+        try (CommandServer server = new CommandServer(simulation.getGrid(), Integer.getInteger("command.port", 0),
+                Integer.getInteger("command.threads", 2), Long.getLong("command.period", 50))) {
+            List<Robot> robots = simulation.getRobots();
+            LongAdder moved = new LongAdder();
+            CountDownLatch connected = new CountDownLatch(clients);
+            AtomicBoolean stop = new AtomicBoolean();
+            for (int c = 0; c < clients; c++) {
+                int[] ids = new int[perClient];
+                for (int k = 0; k < perClient; k++) ids[k] = robots.get((c * perClient + k) % robots.size()).getRobotId();
+                Thread.ofVirtual().start(() -> control(server.getPort(), ids, stop, connected, moved));
+            }
+            connected.await();
+            System.out.printf("%d controllers connected on %d threads%n", server.getConnectionCount(), server.workers.length);
+            long lastCommands = server.getCommandCount(), lastUpdates = server.getUpdateCount();
+            for (int s = 1; s <= seconds; s++) {
+                Thread.sleep(1000);
+                long commandCount = server.getCommandCount(), updateCount = server.getUpdateCount();
+                System.out.printf("%ds: %d commands/s, %d position updates/s, %d moves%n",
+                        s, commandCount - lastCommands, updateCount - lastUpdates, moved.sum());
+                lastCommands = commandCount;
+                lastUpdates = updateCount;
+            }
+            stop.set(true);
+        } finally {
+            simulation.stop();
+        }
+    }
+
+    // One loopback controller: takes its robots, then sends move batches and waits for each reply
+    private static void control(int port, int[] ids, AtomicBoolean stop, CountDownLatch connected, LongAdder moved) {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port))) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            ByteBuffer request = ByteBuffer.allocate(HEADER + 5 * ids.length);
+            request.put(TAKE).putShort((short) ids.length);
+            for (int id : ids) request.putInt(id);
+            send(channel, request);
+            awaitReply(in, TAKE);
+            connected.countDown();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (!stop.get()) {
+                request.clear();
+                request.put(MOVE).putShort((short) ids.length);
+                for (int id : ids) request.putInt(id).put((byte) random.nextInt(4));
+                send(channel, request);
+                moved.add(awaitReply(in, MOVE));
+            }
+        } catch (IOException e) {
+            connected.countDown();
+            if (!stop.get()) System.err.println("Controller failed: " + e);
+        }
+    }
+
+    private static void send(SocketChannel channel, ByteBuffer request) throws IOException {
+        request.flip();
+        while (request.hasRemaining()) channel.write(request);
+    }
+
+    // Reads frames until the reply of the given type, returns its ok entries; position updates are skipped
+    private static int awaitReply(DataInputStream in, byte type) throws IOException {
+        while (true) {
+            byte frame = in.readByte();
+            int count = in.readUnsignedShort();
+            if (frame == POSITIONS) {
+                in.skipNBytes((long) count * POSITION_ENTRY);
+                continue;
+            }
+            int ok = 0;
+            for (int i = 0; i < count; i++) {
+                in.readInt();
+                ok += in.readByte();
+                in.readInt();
+                in.readInt();
+            }
+            if (frame == type) return ok;
+        }
+    }
+}
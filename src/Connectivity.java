@@ -0,0 +1,366 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * The Connectivity class tracks the regions of free space (every cell but obstacles) robots can walk across,
+ * so collectibles and new robots only land where robots can get to
+ * Regions are a union-find over the cells with path halving and union by size: "can this robot reach
+ * (r, c)" is two finds, O(alpha(n)). The regions follow the obstacle edits:
+ *  - a removed obstacle joins its cell to the regions around it, at most four unions
+ *  - a new obstacle may cut its region in two: searches from its free neighbours run side by side until
+ *    they all meet, or one runs out of cells first; only the region it closed (the smaller side) is relabeled
+ * A union-find cannot split a set, so cells leaving their set get a new node and the old nodes stay behind,
+ * still leading the cells under them to their root. Nodes run out after many edits and the regions are
+ * then built again from the grid, as after a maze, a reset or a load (lazily, on the next call).
+ * Every call takes the lock, finds shorten paths as they go. Robots never change the free space, so the
+ * moving threads never call it
+ */
+public class Connectivity implements GridModel.GridListener {
+
+    public static final int MAX_CELLS = 1 << 22; // Bigger grids are not tracked, every cell counts as reachable
+
+    private final GridModel grid;
+
+    private final int rows, cols;
+
+    private final int[] node; // Union-find node of each cell (row * cols + col), -1 for an obstacle
+
+    private final int[] parent; // Parent of each node, itself for a root
+
+    private final int[] size; // Free cells under each root
+
+    private int nextNode; // First node never handed out since the last build
+
+    private boolean stale = true; // Built again from the grid on the next call
+
+    // Regions holding running robots, counted again on the next call when stale
+    private final BitSet robotRoots = new BitSet();
+    private boolean robotsStale = true;
+    private int robotCount;
+    private int largestRoot = -1; // Largest region, where robots and collectibles go while there is no robot
+
+    // Scratch of the searches started by a new obstacle, one per free neighbour
+    private final int[][] queues = new int[4][256]; // Cells reached by each search, in order
+    private final int[] heads = new int[4], tails = new int[4];
+    private final int[] groups = new int[4]; // Searches that met are merged, union-find over the 4 searches
+    private final boolean[] closed = new boolean[4];
+    private final int[] seen; // pass << 2 | search that reached the cell
+    private int pass;
+
+    public Connectivity(GridModel grid) {
+        this.grid = grid;
+        this.rows = grid.getRows();
+        this.cols = grid.getCols();
+        boolean enabled = (long) rows * cols <= MAX_CELLS;
+        int cells = enabled ? rows * cols : 0;
+        int capacity = cells + cells / 4 + 16; // The extra nodes are spent by edits between two builds
+        this.node = enabled ? new int[cells] : null;
+        this.parent = enabled ? new int[capacity] : null;
+        this.size = enabled ? new int[capacity] : null;
+        this.seen = enabled ? new int[cells] : null;
+        grid.addGridListener(this);
+    }
+
+    // Returns false when the grid is too large to be tracked
+    public boolean isEnabled() {
+        return node != null;
+    }
+
+    // ------------------ Queries ------------------
+
+    /**
+     * Returns the region of the cell, the same number for every cell robots can walk between, -1 for an obstacle
+     * Numbers change with the edits, compare them without an edit in between
+     */
+    public synchronized int regionOf(int row, int col) {
+        if (node == null) return grid.isObstacle(row, col) ? -1 : 0;
+        build();
+        int x = node[row * cols + col];
+        return x < 0 ? -1 : find(x);
+    }
+
+    // Returns true if a robot can walk from one cell to the other, obstacles aside
+    public synchronized boolean isConnected(int fromRow, int fromCol, int toRow, int toCol) {
+        int region = regionOf(fromRow, fromCol);
+        return region >= 0 && region == regionOf(toRow, toCol);
+    }
+
+    // Returns true if the robot can walk to (row, col)
+    public boolean isReachable(Robot robot, int row, int col) {
+        return isConnected(robot.getRow(), robot.getCol(), row, col);
+    }
+
+    /**
+     * Returns true if the free cell is worth placing something on: its region holds a running robot,
+     * or there is no robot yet and it is the largest region
+     */
+    public synchronized boolean isTarget(int row, int col) {
+        if (node == null) return true;
+        int region = regionOf(row, col);
+        if (region < 0) return false;
+        countRobots();
+        return isTargetRegion(region);
+    }
+
+    /**
+     * Returns an EMPTY target cell (see isTarget) as row * cols + col, -1 if there is none
+     * Scans the grid from a random cell on and returns the first one found, O(cells): for when random draws
+     * keep missing the targets, e.g. robots walled into a small pocket of a large grid
+     */
+    public synchronized long scanForTarget(Random random) {
+        if (node == null) return grid.randomFreeCell(random);
+        build();
+        countRobots();
+        int cells = rows * cols;
+        int start = random.nextInt(cells);
+        for (int i = 0; i < cells; i++) {
+            int cell = start + i < cells ? start + i : start + i - cells;
+            int x = node[cell];
+            if (x < 0 || !isTargetRegion(find(x))) continue;
+            if (grid.getState(cell / cols, cell % cols) == GridModel.EMPTY) return cell;
+        }
+        return -1;
+    }
+
+    private boolean isTargetRegion(int region) {
+        return robotCount > 0 ? robotRoots.get(region) : region == largestRoot;
+    }
+
+    // ------------------ Robots ------------------
+
+    // A robot was placed, its region becomes a target
+    public synchronized void robotAdded(Robot robot) {
+        if (node == null || stale || robotsStale) return; // Counted with the others on the next call
+        int region = regionOf(robot.getRow(), robot.getCol());
+        if (region < 0) return;
+        robotRoots.set(region);
+        robotCount++;
+    }
+
+    // Robots were removed or stopped, they are counted again on the next call
+    public synchronized void robotsChanged() {
+        robotsStale = true;
+    }
+
+    // Marks the regions of the running robots, and the largest region if there is none
+    private void countRobots() {
+        if (!robotsStale) return;
+        robotRoots.clear();
+        robotCount = 0;
+        grid.forEachRobot(robot -> {
+            if (!robot.isRunning()) return; // Pooled
+            int x = node[robot.getRow() * cols + robot.getCol()];
+            if (x < 0) return;
+            robotRoots.set(find(x));
+            robotCount++;
+        });
+        largestRoot = -1;
+        if (robotCount == 0) {
+            for (int x = 0; x < nextNode; x++) {
+                if (parent[x] == x && (largestRoot < 0 || size[x] > size[largestRoot])) largestRoot = x;
+            }
+        }
+        robotsStale = false;
+    }
+
+    // ------------------ GridModel.GridListener Implementation ------------------
+
+    @Override
+    public synchronized void obstacleChanged(int row, int col, boolean obstacle) {
+        if (node == null || stale) return;
+        // Edits of one cell from two threads may be told in the other order: the grid decides
+        if (grid.isObstacle(row, col) != obstacle) return;
+        int cell = row * cols + col;
+        if (obstacle) {
+            obstacleAdded(cell);
+        } else {
+            obstacleRemoved(cell);
+        }
+    }
+
+    @Override
+    public synchronized void obstaclesReplaced() {
+        stale = true;
+    }
+
+    // ------------------ Updates ------------------
+
+    /**
+     * Builds the regions from the grid if it changed as a whole: one pass uniting each free cell
+     * with its free neighbours above and on the left
+     */
+    private void build() {
+        if (!stale) return;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int cell = r * cols + c;
+                if (grid.getState(r, c) == GridModel.OBSTACLE) {
+                    node[cell] = -1;
+                    continue;
+                }
+                node[cell] = cell;
+                parent[cell] = cell;
+                size[cell] = 1;
+                if (r > 0 && node[cell - cols] >= 0) union(cell, node[cell - cols]);
+                if (c > 0 && node[cell - 1] >= 0) union(cell, node[cell - 1]);
+            }
+        }
+        nextNode = rows * cols;
+        stale = false;
+        robotsStale = true;
+    }
+
+    private int find(int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    // Unites the sets of two nodes, the smaller under the larger
+    private void union(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b) return;
+        if (size[a] < size[b]) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        parent[b] = a;
+        size[a] += size[b];
+        if (robotRoots.get(b)) robotRoots.set(a); // Still right until the next count
+    }
+
+    // A new root for count cells, -1 once nodes ran out (the regions are then built again)
+    private int newRoot(int count) {
+        if (nextNode == parent.length) {
+            stale = true;
+            return -1;
+        }
+        int x = nextNode++;
+        parent[x] = x;
+        size[x] = count;
+        return x;
+    }
+
+    // The cell is free again: a region of its own, united with those of its free neighbours
+    private void obstacleRemoved(int cell) {
+        if (node[cell] >= 0) return;
+        int x = newRoot(1);
+        if (x < 0) return;
+        node[cell] = x;
+        int row = cell / cols, col = cell % cols;
+        if (row > 0 && node[cell - cols] >= 0) union(x, node[cell - cols]);
+        if (row < rows - 1 && node[cell + cols] >= 0) union(x, node[cell + cols]);
+        if (col > 0 && node[cell - 1] >= 0) union(x, node[cell - 1]);
+        if (col < cols - 1 && node[cell + 1] >= 0) union(x, node[cell + 1]);
+        if (robotCount == 0) robotsStale = true; // The largest region may have changed
+    }
+
+    /**
+     * The cell left its region, which may be cut in two or more parts
+     * One breadth-first search per free neighbour of the cell, taking turns one cell at a time. Searches
+     * reaching a cell of another one join it; a search (with those it joined) running out of cells has
+     * found a whole part cut off from the rest, which gets a new root. The last part standing keeps the old
+     * one, so the cost is a few times the size of the parts cut off, nothing when the region stays whole
+     */
+    private void obstacleAdded(int cell) {
+        int x = node[cell];
+        if (x < 0) return;
+        node[cell] = -1;
+        int root = find(x);
+        size[root]--;
+        if (++pass == 1 << 29) {
+            Arrays.fill(seen, 0);
+            pass = 1;
+        }
+        int searches = 0;
+        int row = cell / cols, col = cell % cols;
+        if (row > 0) searches = startSearch(searches, cell - cols);
+        if (row < rows - 1) searches = startSearch(searches, cell + cols);
+        if (col > 0) searches = startSearch(searches, cell - 1);
+        if (col < cols - 1) searches = startSearch(searches, cell + 1);
+        int parts = searches;
+        while (parts > 1) {
+            for (int s = 0; s < searches && parts > 1; s++) {
+                if (closed[s]) continue;
+                if (heads[s] < tails[s]) {
+                    parts -= expand(s);
+                    continue;
+                }
+                int g = group(s);
+                boolean done = true;
+                for (int t = 0; t < searches; t++) {
+                    if (group(t) == g && heads[t] < tails[t]) done = false;
+                }
+                if (!done) continue;
+                // Every cell of this part was reached: it is cut off from the others
+                int count = 0;
+                for (int t = 0; t < searches; t++) {
+                    if (group(t) == g) count += tails[t];
+                }
+                int part = newRoot(count);
+                if (part < 0) return;
+                for (int t = 0; t < searches; t++) {
+                    if (group(t) != g) continue;
+                    closed[t] = true;
+                    for (int i = 0; i < tails[t]; i++) node[queues[t][i]] = part;
+                }
+                size[root] -= count;
+                robotsStale = true;
+                parts--;
+            }
+        }
+    }
+
+    // Starts a search from the cell if it is free, returns the number of searches
+    private int startSearch(int searches, int start) {
+        if (node[start] < 0) return searches;
+        queues[searches][0] = start;
+        heads[searches] = 0;
+        tails[searches] = 1;
+        groups[searches] = searches;
+        closed[searches] = false;
+        seen[start] = pass << 2 | searches;
+        return searches + 1;
+    }
+
+    // Takes the next cell of search s, returns 1 if it met a search it had not joined yet, 0 otherwise
+    private int expand(int s) {
+        int cell = queues[s][heads[s]++];
+        int row = cell / cols, col = cell % cols;
+        int met = 0;
+        if (row > 0) met += reach(s, cell - cols);
+        if (row < rows - 1) met += reach(s, cell + cols);
+        if (col > 0) met += reach(s, cell - 1);
+        if (col < cols - 1) met += reach(s, cell + 1);
+        return met;
+    }
+
+    private int reach(int s, int cell) {
+        if (node[cell] < 0) return 0;
+        int mark = seen[cell];
+        if (mark >>> 2 != pass) {
+            seen[cell] = pass << 2 | s;
+            queues[s] = grow(queues[s], tails[s]);
+            queues[s][tails[s]++] = cell;
+            return 0;
+        }
+        int a = group(s), b = group(mark & 3);
+        if (a == b) return 0;
+        groups[a] = b;
+        return 1;
+    }
+
+    private int group(int s) {
+        while (groups[s] != s) s = groups[s];
+        return s;
+    }
+
+    private static int[] grow(int[] array, int size) {
+        return size < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+}
@@ -0,0 +1,125 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ContentionCheck class hammers the lock-free claim / release path of GridModel and checks that no robot
+ * was lost or duplicated
+ * Threads move robots in random directions on a dense grid as fast as they can (every move claims
+ * the destination with a compare-and-set, then releases the source), while collectibles keep being spawned.
+ * Every robot has two movers, one stepping it like a scheduler and one moving it by hand like a controller,
+ * so moves of the same robot race as well as moves into the same cell.
+ * Afterwards every robot's cell must hold its id, no other cell may hold a robot, the free cell counts must
+ * match the cells and every collectible picked up must have been counted once. Exits with status 1 otherwise.
+ * Headless. Properties:
+ *  check.rows, check.cols : grid size (100 x 100)
+ *  check.robots : robots (8000)
+ *  check.threads : moving threads (16), two per group of robots
+ *  check.seconds : run time (3)
+ * Example: java -Dcheck.threads=32 -Dcheck.seconds=10 ContentionCheck
+ */
+public class ContentionCheck {
+
+    public static void main(String[] args) throws Exception {
+        int rows = Integer.getInteger("check.rows", 100);
+        int cols = Integer.getInteger("check.cols", rows);
+        int count = Integer.getInteger("check.robots", 8000);
+        int threads = Math.max(2, Integer.getInteger("check.threads", 16) & ~1);
+        int groups = threads / 2;
+        int seconds = Integer.getInteger("check.seconds", 3);
+
+        GridModel grid = new GridModel(rows, cols);
+        AtomicLong pickups = new AtomicLong();
+        Robot.CollectibleListener listener = robot -> pickups.incrementAndGet();
+        SplittableRandom random = new SplittableRandom(42);
+        List<Robot> robots = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            robots.add(new Robot(Color.RED, grid, 0, listener, random.nextLong()));
+        }
+        System.out.printf("%d robots on %d x %d, %d threads, %d s%n", count, rows, cols, threads, seconds);
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong attempts = new AtomicLong(), moves = new AtomicLong();
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> movers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread mover = new Thread(() -> {
+                SplittableRandom r = new SplittableRandom(first);
+                int group = first / 2;
+                boolean manual = (first & 1) != 0;
+                int owned = (count - group + groups - 1) / groups;
+                long tried = 0, moved = 0;
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (!stop.get() && owned > 0) {
+                    // Threads 2g and 2g + 1 move robots g, g + groups, g + 2 * groups...: two movers per robot
+                    Robot robot = robots.get(group + groups * r.nextInt(owned));
+                    int dir = r.nextInt(4);
+                    if (manual) {
+                        if (robot.manualMove(dir)) moved++;
+                    } else {
+                        int row = robot.getRow() + (dir == 0 ? -1 : dir == 1 ? 1 : 0);
+                        int col = robot.getCol() + (dir == 2 ? -1 : dir == 3 ? 1 : 0);
+                        if (robot.attemptMove(row, col)) moved++;
+                    }
+                    tried++;
+                }
+                attempts.addAndGet(tried);
+                moves.addAndGet(moved);
+            }, "mover-" + t);
+            mover.start();
+            movers.add(mover);
+        }
+
+        // Collectibles land on free cells while robots take them
+        Random spawns = new Random(42);
+        long spawned = 0;
+        go.countDown();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            long cell = grid.randomFreeCell(spawns);
+            if (cell >= 0 && grid.placeCollectible((int) (cell / cols), (int) (cell % cols))) spawned++;
+            Thread.sleep(0, 100_000);
+        }
+        stop.set(true);
+        for (Thread mover : movers) mover.join();
+
+        int failures = 0;
+        int[] seen = new int[count + 1]; // Robot ids are 1..count
+        int occupied = 0, collectibles = 0, free = 0;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int state = grid.getState(r, c);
+                if (state > 0) {
+                    occupied++;
+                    if (state > count || seen[state]++ > 0) failures++; // Unknown or duplicated id
+                } else if (state == GridModel.COLLECTIBLE) {
+                    collectibles++;
+                } else if (state == GridModel.EMPTY) {
+                    free++;
+                }
+            }
+        }
+        for (Robot robot : robots) {
+            if (grid.getState(robot.getRow(), robot.getCol()) != robot.getRobotId()) failures++; // Lost robot
+        }
+        if (occupied != count) failures++;
+        if (grid.getFreeCellCount() != free) failures++;
+        if (spawned - collectibles != pickups.get()) failures++;
+
+        System.out.printf("%d attempts, %d moves, %d robots on the grid, %d free cells (counted %d)%n",
+                attempts.get(), moves.get(), occupied, free, grid.getFreeCellCount());
+        System.out.printf("%d collectibles spawned, %d left, %d picked up%n", spawned, collectibles, pickups.get());
+        System.out.println(failures == 0 ? "OK: no robot lost or duplicated" : "FAILED: " + failures + " problems");
+        if (failures != 0) System.exit(1);
+    }
+}
@@ -1,11 +1,13 @@
 import javax.swing.*;
 import java.awt.*;
 import javax.swing.event.*;
+import java.util.List;
 
 /**
  * The ControlPanel class creates a panel with controls for the simulation.
- * It includes buttons to start, pause, reset, add/remove robots, generate maze,
- * and a slider to adjust robot speed. A score label shows the current collectible score.
+ * It includes buttons to start, pause, reset, add/remove robots, generate maze, save/load a snapshot,
+ * and a slider to adjust robot speed. A score label shows the current collectible score, and a leaderboard
+ * the robots that collected the most.
  */
 public class ControlPanel extends JPanel {
     private JButton startButton;
@@ -14,9 +16,14 @@ public class ControlPanel extends JPanel {
     private JButton addRobotButton;
     private JButton removeRobotButton;
     private JButton generateMazeButton;
+    private JComboBox<MazeGenerator.Algorithm> mazeAlgorithmBox; // Algorithm used by Generate Maze
+    private JButton saveButton;
+    private JButton loadButton;
     private JToggleButton manualToggleButton;
     private JSlider speedSlider;
     private JLabel scoreLabel;  // Displays the current score.
+    private JLabel leaderboardLabel; // Colors and scores of the best robots
+    private String leaderboardText = ""; // Shown text, the label is only updated when it changes
 
     /**
      * Interface for handling control events.
@@ -29,7 +36,9 @@ public class ControlPanel extends JPanel {
         void onRemoveRobot();
         void onToggleManual(boolean manualMode);
         void onSpeedChange(int delay);
-        void onGenerateMaze();
+        void onGenerateMaze(MazeGenerator.Algorithm algorithm);
+        void onSaveSnapshot();
+        void onLoadSnapshot();
     }
 
     /**
@@ -50,6 +59,10 @@ public class ControlPanel extends JPanel {
         addRobotButton = new JButton("Add Robot");
         removeRobotButton = new JButton("Remove Robot");
         generateMazeButton = new JButton("Generate Maze");
+        mazeAlgorithmBox = new JComboBox<>(MazeGenerator.Algorithm.values());
+        mazeAlgorithmBox.setFocusable(false); // Keep the arrow keys for manual control
+        saveButton = new JButton("Save");
+        loadButton = new JButton("Load");
         manualToggleButton = new JToggleButton("Manual Control");
 
         // Add buttons to the panel
@@ -59,6 +72,9 @@ public class ControlPanel extends JPanel {
         buttonPanel.add(addRobotButton);
         buttonPanel.add(removeRobotButton);
         buttonPanel.add(generateMazeButton);
+        buttonPanel.add(mazeAlgorithmBox);
+        buttonPanel.add(saveButton);
+        buttonPanel.add(loadButton);
         buttonPanel.add(manualToggleButton);
 
         // panel for the slider and score
@@ -72,6 +88,9 @@ public class ControlPanel extends JPanel {
         scoreLabel = new JLabel("Score: 0");
         sliderPanel.add(scoreLabel);
 
+        leaderboardLabel = new JLabel();
+        sliderPanel.add(leaderboardLabel);
+
         // Add both panels to the main control panel
         add(buttonPanel);
         add(sliderPanel);
@@ -82,13 +101,30 @@ public class ControlPanel extends JPanel {
         resetButton.addActionListener(e -> listener.onReset());
         addRobotButton.addActionListener(e -> listener.onAddRobot());
         removeRobotButton.addActionListener(e -> listener.onRemoveRobot());
-        generateMazeButton.addActionListener(e -> listener.onGenerateMaze());
+        generateMazeButton.addActionListener(e ->
+                listener.onGenerateMaze((MazeGenerator.Algorithm) mazeAlgorithmBox.getSelectedItem()));
+        saveButton.addActionListener(e -> listener.onSaveSnapshot());
+        loadButton.addActionListener(e -> listener.onLoadSnapshot());
         manualToggleButton.addActionListener(e -> listener.onToggleManual(manualToggleButton.isSelected()));
         speedSlider.addChangeListener(e -> listener.onSpeedChange(speedSlider.getValue()));
     }
 
      //Updates the displayed score
-    public void updateScore(int score) {
+    public void updateScore(long score) {
         scoreLabel.setText("Score: " + score);
     }
+
+    // Shows the leaders as a colored square and a score each
+    public void updateLeaderboard(List<Simulation.Standing> leaders) {
+        StringBuilder text = new StringBuilder("<html>");
+        for (Simulation.Standing standing : leaders) {
+            text.append(String.format("<font color=#%06x>&#9632;</font> %d &nbsp;",
+                    standing.robot.getColor().getRGB() & 0xFFFFFF, standing.score));
+        }
+        text.append("</html>");
+        if (!text.toString().equals(leaderboardText)) {
+            leaderboardText = text.toString();
+            leaderboardLabel.setText(leaderboardText);
+        }
+    }
 }
@@ -0,0 +1,311 @@
+import java.util.Arrays;
+
+/**
+ * The DistanceField class holds, for every cell, the number of steps to the nearest collectible
+ * It is one breadth-first search from all collectibles at once, shared by every robot: a robot
+ * heads for a collectible by stepping to a neighbour one step closer, which is O(1) whatever the
+ * number of robots.
+ * The field follows the grid events and is only repaired where it changed:
+ *  - a new collectible or a removed obstacle lowers distances, spreading out from that cell
+ *  - a picked up collectible or a new obstacle raises the cells that depended on it, which are
+ *    invalidated and then filled again from their unaffected border
+ * Only a maze or a reset rebuilds it from scratch. Updates are serialized, reads take no lock and
+ * may see an update in progress, which at worst costs a robot one detour.
+ * The field follows the grid either as a listener, updated by the thread making the change (a robot picking
+ * up a collectible repairs it), or through an EventBus on a thread of its own, a little behind the grid.
+ */
+public class DistanceField implements GridModel.GridListener, EventBus.Handler {
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    public static final int MAX_CELLS = 1 << 24; // Bigger grids get no field
+
+    private final GridModel grid;
+
+    private final int rows, cols;
+
+    private final int[] dist; // Steps to the nearest collectible per cell (row * cols + col), null if disabled
+
+    // Scratch of the updates, grown on demand
+    private int[] queue = new int[256];
+    private int[] levels = new int[256]; // Old distance of each raised cell
+    private int[] invalid = new int[256];
+    private long[] seeds = new long[256];
+
+    private EventBus.Subscription subscription; // Null when following the grid as a listener
+
+    // Events changing the distances
+    private static final long INTEREST = EventBus.of(EventBus.SPAWN) | EventBus.of(EventBus.CLEAR)
+            | EventBus.pickedUp(EventBus.PLACE) | EventBus.pickedUp(EventBus.MOVE)
+            | EventBus.of(EventBus.OBSTACLE_ON) | EventBus.of(EventBus.OBSTACLE_OFF) | EventBus.of(EventBus.OBSTACLES);
+
+    public DistanceField(GridModel grid) {
+        this(grid, null);
+    }
+
+    /**
+     * With events set, follows the grid through the bus instead of as a listener
+     * (close stops the thread then); events of the grid must be published on it
+     */
+    public DistanceField(GridModel grid, EventBus events) {
+        this.grid = grid;
+        this.rows = grid.getRows();
+        this.cols = grid.getCols();
+        this.dist = (long) rows * cols <= MAX_CELLS ? new int[rows * cols] : null;
+        if (events == null) {
+            grid.addGridListener(this);
+        } else if (dist != null) {
+            // Subscribed before the first build: events it already contains change nothing when read again
+            subscription = events.subscribe(this, INTEREST, false).start("distance-field");
+        }
+        rebuild();
+    }
+
+    // Stops following the grid through the bus
+    public void close() {
+        if (subscription != null) subscription.close();
+    }
+
+    // Returns false when the grid is too large to hold a field
+    public boolean isEnabled() {
+        return dist != null;
+    }
+
+    // Returns the number of steps from (row, col) to the nearest collectible, or UNREACHABLE
+    public int getDistance(int row, int col) {
+        return dist != null ? dist[row * cols + col] : UNREACHABLE;
+    }
+
+    /**
+     * Returns the direction (0 up, 1 down, 2 left, 3 right) of a neighbour one step closer to a collectible,
+     * or -1 if no collectible can be reached
+     * Neighbours are tried from the preferred direction on, so equal choices are spread out
+     */
+    public int directionToCollectible(int row, int col, int preferred) {
+        if (dist == null) return -1;
+        int d = dist[row * cols + col];
+        if (d == UNREACHABLE || d == 0) return -1;
+        for (int k = 0; k < 4; k++) {
+            int dir = (preferred + k) & 3;
+            int r = row + DR[dir], c = col + DC[dir];
+            if (grid.inBounds(r, c) && dist[r * cols + c] == d - 1) return dir;
+        }
+        return -1;
+    }
+
+    // Directions: up, down, left, right
+    private static final int[] DR = { -1, 1, 0, 0 };
+    private static final int[] DC = { 0, 0, -1, 1 };
+
+    // ------------------ EventBus.Handler Implementation ------------------
+
+    @Override
+    public void onEvent(long sequence, byte type, byte flags, int id, int row, int col) {
+        switch (type) {
+            case EventBus.PLACE:
+            case EventBus.MOVE:
+            case EventBus.CLEAR: collectibleChanged(row, col, false); break; // Only pickups among the moves
+            case EventBus.SPAWN: collectibleChanged(row, col, true); break;
+            case EventBus.OBSTACLE_ON: obstacleChanged(row, col, true); break;
+            case EventBus.OBSTACLE_OFF: obstacleChanged(row, col, false); break;
+            case EventBus.OBSTACLES: obstaclesReplaced(); break;
+        }
+    }
+
+    @Override
+    public void onLost(long count) {
+        rebuild(); // Too far behind, start over from the grid as it is now
+    }
+
+    // ------------------ GridModel.GridListener Implementation ------------------
+
+    @Override
+    public synchronized void collectibleChanged(int row, int col, boolean present) {
+        if (dist == null) return;
+        int cell = row * cols + col;
+        if (present) {
+            lower(cell, 0);
+        } else if (dist[cell] == 0) {
+            // The cell stays free, it is filled again with the cells that depended on it
+            dist[cell] = UNREACHABLE;
+            raise(cell, 0, true);
+        }
+    }
+
+    @Override
+    public synchronized void obstacleChanged(int row, int col, boolean obstacle) {
+        if (dist == null) return;
+        int cell = row * cols + col;
+        if (obstacle) {
+            int old = dist[cell];
+            dist[cell] = UNREACHABLE;
+            if (old != UNREACHABLE) raise(cell, old, false);
+        } else {
+            lower(cell, closestNeighbour(cell));
+        }
+    }
+
+    @Override
+    public synchronized void obstaclesReplaced() {
+        if (dist != null) rebuild();
+    }
+
+    // ------------------ Updates ------------------
+
+    /**
+     * Full multi-source breadth-first search from every collectible
+     */
+    private synchronized void rebuild() {
+        if (dist == null) return;
+        Arrays.fill(dist, UNREACHABLE);
+        int tail = 0;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (grid.getState(r, c) == GridModel.COLLECTIBLE) {
+                    dist[r * cols + c] = 0;
+                    queue = grow(queue, tail);
+                    queue[tail++] = r * cols + c;
+                }
+            }
+        }
+        spread(0, tail);
+    }
+
+    /**
+     * Gives the cell a new, smaller distance and spreads it to every cell it brings closer
+     */
+    private void lower(int cell, int d) {
+        if (d >= dist[cell]) return;
+        dist[cell] = d;
+        queue[0] = cell;
+        spread(0, 1);
+    }
+
+    // Breadth-first relaxation of the cells queue[head, tail), which must be in distance order
+    private void spread(int head, int tail) {
+        while (head < tail) {
+            int cell = queue[head++];
+            int next = dist[cell] + 1;
+            int row = cell / cols, col = cell % cols;
+            for (int dir = 0; dir < 4; dir++) {
+                int r = row + DR[dir], c = col + DC[dir];
+                if (!grid.inBounds(r, c)) continue;
+                int n = r * cols + c;
+                if (next < dist[n] && grid.getState(r, c) != GridModel.OBSTACLE) {
+                    dist[n] = next;
+                    queue = grow(queue, tail);
+                    queue[tail++] = n;
+                }
+            }
+        }
+    }
+
+    /**
+     * The cell lost its distance d (collectible picked up, or new obstacle)
+     * Raise phase: in breadth-first order, every cell at d + 1, d + 2... reached from it that has no
+     * other neighbour one step closer is invalidated. Cells of one level are all invalidated before the
+     * next level is checked, so "another neighbour" is never a cell that is about to be invalidated.
+     * Repair phase: the invalidated cells are filled from their border, see repair
+     */
+    private void raise(int cell, int d, boolean refill) {
+        int invalidCount = 0;
+        if (refill) invalid[invalidCount++] = cell;
+        queue[0] = cell;
+        levels[0] = d;
+        int head = 0, tail = 1;
+        while (head < tail) {
+            int x = queue[head], level = levels[head];
+            head++;
+            int row = x / cols, col = x % cols;
+            for (int dir = 0; dir < 4; dir++) {
+                int r = row + DR[dir], c = col + DC[dir];
+                if (!grid.inBounds(r, c)) continue;
+                int n = r * cols + c;
+                if (dist[n] != level + 1 || hasCloserNeighbour(n, level)) continue;
+                dist[n] = UNREACHABLE;
+                queue = grow(queue, tail);
+                levels = grow(levels, tail);
+                queue[tail] = n;
+                levels[tail++] = level + 1;
+                invalid = grow(invalid, invalidCount);
+                invalid[invalidCount++] = n;
+            }
+        }
+        repair(invalidCount);
+    }
+
+    // Returns true if a neighbour of the cell is at distance level
+    private boolean hasCloserNeighbour(int cell, int level) {
+        int row = cell / cols, col = cell % cols;
+        for (int dir = 0; dir < 4; dir++) {
+            int r = row + DR[dir], c = col + DC[dir];
+            if (grid.inBounds(r, c) && dist[r * cols + c] == level) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fills the invalidated cells again
+     * Each one gets a tentative distance from its valid neighbours; the tentative cells, sorted by
+     * distance, are merged with the breadth-first queue so cells are still settled in distance order
+     */
+    private void repair(int invalidCount) {
+        int seedCount = 0;
+        for (int i = 0; i < invalidCount; i++) {
+            int cell = invalid[i];
+            int d = closestNeighbour(cell);
+            if (d != UNREACHABLE) {
+                seeds = grow(seeds, seedCount);
+                seeds[seedCount++] = ((long) d << 32) | cell;
+            }
+        }
+        Arrays.sort(seeds, 0, seedCount);
+        int head = 0, tail = 0, s = 0;
+        while (s < seedCount || head < tail) {
+            int cell;
+            if (head == tail || (s < seedCount && (int) (seeds[s] >>> 32) <= dist[queue[head]])) {
+                cell = (int) seeds[s];
+                int d = (int) (seeds[s++] >>> 32);
+                if (d >= dist[cell]) continue; // Already reached by a shorter way
+                dist[cell] = d;
+            } else {
+                cell = queue[head++];
+            }
+            int next = dist[cell] + 1;
+            int row = cell / cols, col = cell % cols;
+            for (int dir = 0; dir < 4; dir++) {
+                int r = row + DR[dir], c = col + DC[dir];
+                if (!grid.inBounds(r, c)) continue;
+                int n = r * cols + c;
+                if (next < dist[n] && grid.getState(r, c) != GridModel.OBSTACLE) {
+                    dist[n] = next;
+                    queue = grow(queue, tail);
+                    queue[tail++] = n;
+                }
+            }
+        }
+    }
+
+    // Smallest distance of the free cell through one of its neighbours, UNREACHABLE if none
+    private int closestNeighbour(int cell) {
+        if (grid.getState(cell / cols, cell % cols) == GridModel.OBSTACLE) return UNREACHABLE;
+        int row = cell / cols, col = cell % cols;
+        int best = UNREACHABLE;
+        for (int dir = 0; dir < 4; dir++) {
+            int r = row + DR[dir], c = col + DC[dir];
+            if (grid.inBounds(r, c)) {
+                int d = dist[r * cols + c];
+                if (d != UNREACHABLE) best = Math.min(best, d + 1);
+            }
+        }
+        return best;
+    }
+
+    private static int[] grow(int[] array, int size) {
+        return size < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+
+    private static long[] grow(long[] array, int size) {
+        return size < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+}
@@ -0,0 +1,305 @@
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The EventBus class carries the changes of the grid from the threads making them to the subscribers
+ * that follow them (the event log, the distance field), which run on threads of their own
+ * Events sit in a ring of preallocated slots, so publishing allocates nothing: a publisher takes the next
+ * sequence number with one atomic add, writes the event into its slot and marks the slot with the number.
+ * Sequence numbers are taken at the same points as the EventLog slots used to be, e.g. between claiming the
+ * new cell and releasing the old one of a move, so the order of the events is the order of the changes.
+ * Each subscriber reads the slots in order at its own pace:
+ *  - a lossless one (the log) holds the publishers back when the ring is full of events it has not read
+ *  - a lossy one never slows them down, but is told how many events it lost when it falls a whole ring behind
+ * Only the events some subscriber is interested in are published; the others cost one volatile read
+ */
+public class EventBus {
+
+    // Event types, the record types of the EventLog
+    public static final byte PLACE = EventLog.PLACE;
+    public static final byte MOVE = EventLog.MOVE;
+    public static final byte REMOVE = EventLog.REMOVE;
+    public static final byte OBSTACLE_ON = EventLog.OBSTACLE_ON;
+    public static final byte OBSTACLE_OFF = EventLog.OBSTACLE_OFF;
+    public static final byte SPAWN = EventLog.SPAWN;
+    public static final byte CLEAR = EventLog.CLEAR;
+    public static final byte RESET = EventLog.RESET;
+    public static final byte OBSTACLES = 9; // The obstacle layer was replaced as a whole (maze, load), not logged
+
+    // Flags
+    public static final byte COLLECTED = EventLog.COLLECTED; // PLACE / MOVE: the robot picked up a collectible
+    public static final byte LAYER = 2; // Cell of a whole layer change (see inLayer), OBSTACLES follows
+
+    public static final long ALL = -1L; // Interest in every event
+
+    /**
+     * Receives the events of a subscription, in order, on the thread polling it
+     */
+    public interface Handler {
+        void onEvent(long sequence, byte type, byte flags, int id, int row, int col);
+
+        // A lossy subscriber fell a whole ring behind: count events were skipped
+        default void onLost(long count) {}
+    }
+
+    private final int mask;
+
+    private final int[] records; // 4 ints per slot: type | flags << 8, robot id, row, col
+
+    private final AtomicLongArray published; // Sequence number of the event in each slot, written last
+
+    private final AtomicLong next = new AtomicLong(); // Next sequence number to hand out
+
+    private volatile Subscription[] subscriptions = new Subscription[0]; // Replaced on (un)subscribe, read without a lock
+
+    private volatile long interest = 0; // Union of the interests of the subscriptions
+
+    private volatile long gate = Long.MAX_VALUE; // Slowest lossless subscription, last time it was looked up (under the lock)
+
+    /**
+     * capacity : number of slots, rounded up to a power of two
+     */
+    public EventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        records = new int[size * 4];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) published.setPlain(i, -1);
+    }
+
+    // Interest in the events of a type (pickups included, the cells of a layer change excluded)
+    public static long of(byte type) {
+        return 1L << type;
+    }
+
+    // Interest in the PLACE or MOVE events that picked up a collectible only
+    public static long pickedUp(byte type) {
+        return 1L << (16 + type);
+    }
+
+    // Interest in the cells of a layer change, published one by one only if a subscriber wants them
+    public static long inLayer(byte type) {
+        return 1L << (32 + type);
+    }
+
+    // Interests an event matches
+    private static long interestOf(byte type, byte flags) {
+        if ((flags & LAYER) != 0) return inLayer(type);
+        return (flags & COLLECTED) != 0 ? of(type) | pickedUp(type) : of(type);
+    }
+
+    // Returns true if a subscriber is interested in such an event, publishing it is useless otherwise
+    public boolean wants(byte type, byte flags) {
+        return (interest & interestOf(type, flags)) != 0;
+    }
+
+    // ------------------ Publishing ------------------
+
+    public void robotPlaced(int id, int row, int col, boolean collected) {
+        publish(PLACE, collected ? COLLECTED : 0, id, row, col);
+    }
+
+    public void robotMoved(int id, int row, int col, boolean collected) {
+        publish(MOVE, collected ? COLLECTED : 0, id, row, col);
+    }
+
+    public void robotRemoved(int id) {
+        publish(REMOVE, (byte) 0, id, 0, 0);
+    }
+
+    public void obstacleChanged(int row, int col, boolean obstacle) {
+        publish(obstacle ? OBSTACLE_ON : OBSTACLE_OFF, (byte) 0, 0, row, col);
+    }
+
+    public void collectibleSpawned(int row, int col) {
+        publish(SPAWN, (byte) 0, 0, row, col);
+    }
+
+    public void collectibleCleared(int row, int col) {
+        publish(CLEAR, (byte) 0, 0, row, col);
+    }
+
+    public void gridReset() {
+        publish(RESET, (byte) 0, 0, 0, 0);
+    }
+
+    public void obstaclesReplaced() {
+        publish(OBSTACLES, (byte) 0, 0, 0, 0);
+    }
+
+    /**
+     * Publishes the event if a subscriber wants it
+     */
+    public void publish(byte type, byte flags, int id, int row, int col) {
+        if ((interest & interestOf(type, flags)) == 0) return;
+        long sequence = next.getAndIncrement();
+        if (sequence - mask > gate) awaitRoom(sequence);
+        int slot = (int) sequence & mask;
+        int i = slot << 2;
+        records[i] = type | flags << 8;
+        records[i + 1] = id;
+        records[i + 2] = row;
+        records[i + 3] = col;
+        published.setRelease(slot, sequence); // Readers seeing the number see the record
+    }
+
+    // Waits until every lossless subscription has read the event that used the slot before
+    private void awaitRoom(long sequence) {
+        for (int spins = 0; sequence - mask > lookUpGate(); spins++) {
+            if (spins < 100) Thread.onSpinWait();
+            else LockSupport.parkNanos(10_000);
+        }
+    }
+
+    /**
+     * Sets the gate to the slowest lossless subscription and returns it
+     * Under the lock of subscribe: a gate computed without a new subscription cannot overwrite the lower one
+     * it set, which would let publishers skip awaitRoom and overwrite events the new subscription has not read
+     */
+    private synchronized long lookUpGate() {
+        long slowest = Long.MAX_VALUE;
+        for (Subscription s : subscriptions) {
+            if (s.lossless && !s.closed) slowest = Math.min(slowest, s.position);
+        }
+        gate = slowest;
+        return slowest;
+    }
+
+    // ------------------ Subscriptions ------------------
+
+    /**
+     * Follows the events matching the interest (e.g. of(SPAWN) | pickedUp(MOVE)) published from now on
+     * Nothing is delivered until the subscription is polled, or started on a thread of its own
+     */
+    public synchronized Subscription subscribe(Handler handler, long interest, boolean lossless) {
+        Subscription subscription = new Subscription(handler, interest, lossless, next.get());
+        Subscription[] current = subscriptions;
+        Subscription[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = subscription;
+        subscriptions = grown;
+        this.interest |= interest;
+        if (lossless) gate = Math.min(gate, subscription.position);
+        return subscription;
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        Subscription[] kept = Arrays.stream(subscriptions).filter(s -> s != subscription).toArray(Subscription[]::new);
+        subscriptions = kept;
+        long union = 0;
+        for (Subscription s : kept) union |= s.interest;
+        interest = union;
+        gate = Long.MAX_VALUE; // Looked up again by the next publisher held back
+    }
+
+    /**
+     * One subscriber's position in the events
+     */
+    public final class Subscription implements AutoCloseable {
+        private final Handler handler;
+        private final long interest;
+        private final boolean lossless;
+        private volatile long position; // Next sequence number to read, only written by the reading thread
+        private volatile boolean closed;
+        private Thread reader;
+
+        private Subscription(Handler handler, long interest, boolean lossless, long position) {
+            this.handler = handler;
+            this.interest = interest;
+            this.lossless = lossless;
+            this.position = position;
+        }
+
+        /**
+         * Hands the events published since the last poll to the handler, at most limit of them
+         * Returns how many slots were read (matching the interest or not), 0 if there was nothing new
+         */
+        public int poll(int limit) {
+            long p = position;
+            int read = 0;
+            while (read < limit) {
+                int slot = (int) p & mask;
+                long sequence = published.getAcquire(slot);
+                if (sequence < p) break; // Not published yet
+                if (sequence > p) {
+                    // Overwritten, a lossy subscription a whole ring behind: jump to the oldest event still there
+                    long oldest = Math.max(p + 1, next.get() - mask);
+                    handler.onLost(oldest - p);
+                    p = oldest;
+                    position = p;
+                    continue;
+                }
+                int i = slot << 2;
+                int head = records[i], id = records[i + 1], row = records[i + 2], col = records[i + 3];
+                if (!lossless) {
+                    // A publisher that took the number of the slot's next event may have overwritten it meanwhile
+                    VarHandle.loadLoadFence();
+                    if (next.get() - p > mask) continue; // Seen as overwritten on the next turn
+                }
+                byte type = (byte) head, flags = (byte) (head >> 8);
+                if ((interest & interestOf(type, flags)) != 0) {
+                    handler.onEvent(p, type, flags, id, row, col);
+                }
+                p++;
+                read++;
+                if ((read & 255) == 0) position = p; // Lets held back publishers go on during a long poll
+            }
+            position = p;
+            return read;
+        }
+
+        /**
+         * Polls on a daemon thread of its own until closed, napping when there is nothing to read
+         */
+        public synchronized Subscription start(String name) {
+            if (reader != null || closed) return this;
+            reader = new Thread(() -> {
+                int idle = 0;
+                while (!closed) {
+                    if (poll(4096) > 0) {
+                        idle = 0;
+                    } else if (++idle < 100) {
+                        Thread.onSpinWait();
+                    } else {
+                        LockSupport.parkNanos(100_000); // 0.1 ms, publishers never wake readers up
+                    }
+                }
+            }, name);
+            reader.setDaemon(true);
+            reader.start();
+            return this;
+        }
+
+        /**
+         * Stops the reader thread after it read every event published before the call, then unsubscribes
+         * Publishers still running keep publishing, their events may not be read
+         */
+        @Override
+        public void close() {
+            long end = next.get();
+            Thread t;
+            synchronized (this) {
+                t = reader;
+                reader = null;
+            }
+            if (t != null) {
+                // Numbers handed out before the call are published within moments, unless their thread died
+                long deadline = System.nanoTime() + 1_000_000_000L;
+                while (position < end && t.isAlive() && System.nanoTime() < deadline) {
+                    LockSupport.parkNanos(100_000);
+                }
+                closed = true;
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                closed = true;
+            }
+            unsubscribe(this);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The EventLog class writes every change of the grid to an append-only binary file
+ * Records have a fixed size (RECORD_SIZE bytes), so event n sits at HEADER_SIZE + n * RECORD_SIZE and a
+ * replay can jump anywhere (see EventReplay). The file is memory-mapped in SEGMENT_SIZE pieces, the OS writes
+ * the pages out in batches.
+ * The log is a lossless subscriber of the grid's EventBus: records are written on a thread of their own, in
+ * the order of the bus, so the moving threads never touch the file (nor fault its pages in). A move is
+ * published between claiming the new cell and releasing the old one, so a robot always leaves a cell in the
+ * log before anyone else enters it. The few orders that stay open are settled by the replay rules of EventReplay.
+ */
+public class EventLog implements EventBus.Handler, AutoCloseable {
+
+    static final int MAGIC = 0x52474C31; // "RGL1"
+
+    static final int HEADER_SIZE = 64; // magic, rows, cols, record size, event count (written on close)
+
+    static final int RECORD_SIZE = 16; // type, flags, 2 unused bytes, robot id, row, col
+
+    static final int SEGMENT_BITS = 26;
+    static final long SEGMENT_SIZE = 1L << SEGMENT_BITS; // 64 MB, a whole number of records
+
+    // Record types, 0 marks a slot that was never written
+    static final byte PLACE = 1;            // Robot id appears at (row, col)
+    static final byte MOVE = 2;             // Robot id moves from its cell to (row, col)
+    static final byte REMOVE = 3;           // Robot id leaves the grid
+    static final byte OBSTACLE_ON = 4;
+    static final byte OBSTACLE_OFF = 5;
+    static final byte SPAWN = 6;            // Collectible placed at (row, col)
+    static final byte CLEAR = 7;            // Collectible removed from (row, col) without a robot
+    static final byte RESET = 8;            // Every cell emptied
+
+    static final byte COLLECTED = 1; // Flag of PLACE / MOVE: the robot picked up a collectible
+
+    private final FileChannel channel;
+
+    private final AtomicReferenceArray<MappedByteBuffer> segments = new AtomicReferenceArray<>(1 << 16);
+
+    private final AtomicLong next = new AtomicLong(); // Next event number, negative once closed
+
+    private long count = -1; // Number of events, set on close
+
+    /**
+     * Creates (or truncates) the log file for a grid of rows x cols
+     */
+    public EventLog(Path file, int rows, int cols) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, MAGIC).putInt(4, rows).putInt(8, cols).putInt(12, RECORD_SIZE).putLong(16, -1);
+        channel.write(header, 0);
+    }
+
+    // Returns the number of events logged so far
+    public synchronized long getEventCount() {
+        return count >= 0 ? count : next.get();
+    }
+
+    // ------------------ Events ------------------
+
+    @Override
+    public void onEvent(long sequence, byte type, byte flags, int id, int row, int col) {
+        if (type == EventBus.OBSTACLES) return; // The cells of the layer were published one by one
+        append(type, (byte) (flags & COLLECTED), id, row, col);
+    }
+
+    // ------------------ Writing ------------------
+
+    private void append(byte type, byte flags, int id, int row, int col) {
+        long n = next.getAndIncrement();
+        if (n < 0) return; // Closed
+        long position = HEADER_SIZE + n * RECORD_SIZE;
+        MappedByteBuffer segment = segment(position >>> SEGMENT_BITS);
+        int i = (int) (position & (SEGMENT_SIZE - 1));
+        segment.putInt(i + 4, id);
+        segment.putInt(i + 8, row);
+        segment.putInt(i + 12, col);
+        segment.put(i + 1, flags);
+        segment.put(i, type); // Last, a slot with a type is complete
+    }
+
+    // Returns the mapping of a segment, mapping it (and growing the file) the first time
+    private MappedByteBuffer segment(long index) {
+        MappedByteBuffer segment = segments.get((int) index);
+        if (segment != null) return segment;
+        synchronized (this) {
+            segment = segments.get((int) index);
+            if (segment == null) {
+                try {
+                    segment = channel.map(FileChannel.MapMode.READ_WRITE, index * SEGMENT_SIZE, SEGMENT_SIZE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot grow the event log", e);
+                }
+                segment.order(ByteOrder.LITTLE_ENDIAN);
+                segments.set((int) index, segment);
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * Flushes the mapped pages, writes the event count and cuts the file after the last event
+     * Close the subscription first, events handed to the log afterwards are dropped
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (count >= 0) return;
+        // From now on writers get a negative slot and drop their event, the file can be cut safely
+        count = next.getAndSet(Long.MIN_VALUE / 2);
+        for (int i = 0; i < segments.length(); i++) {
+            MappedByteBuffer segment = segments.get(i);
+            if (segment != null) segment.force();
+        }
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(0, count);
+        channel.write(header, 16);
+        channel.truncate(HEADER_SIZE + count * RECORD_SIZE);
+        channel.force(true);
+        channel.close();
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The EventReplay class rebuilds the grid from an EventLog file, as fast as the events can be read
+ * The grid holds robot ids, not Robot objects: there is nothing to schedule and nothing sleeps.
+ * seek() moves to any event: forward by applying the events in between, backward by starting over.
+ * Replay rules for the orders the log does not fix (see EventLog):
+ *  - a robot entering a cell always takes it, a robot leaving a cell only empties it if it is still there
+ *  - a collectible only lands on an empty cell, and not at all if a robot already picked it up in the log
+ * Run: java EventReplay run.log [event]  (replays up to the event, the whole log by default)
+ */
+public class EventReplay implements AutoCloseable {
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer[] segments;
+
+    private final int rows, cols;
+
+    private final long events; // Number of complete events in the file
+
+    private GridModel grid;
+
+    private long position; // Number of events applied to the grid
+
+    private long[] robotCells = new long[16]; // Cell (row * cols + col) of each robot id, -1 if none
+
+    private final Set<Long> pickedAhead = new HashSet<>(); // Collectibles picked up before their spawn was logged
+
+    private long collected; // Collectibles picked up by moves since the last reset (the score)
+
+    public EventReplay(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        long size = channel.size();
+        int count = (int) ((size + EventLog.SEGMENT_SIZE - 1) >>> EventLog.SEGMENT_BITS);
+        segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << EventLog.SEGMENT_BITS;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(EventLog.SEGMENT_SIZE, size - start));
+            segments[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (size < EventLog.HEADER_SIZE || segments[0].getInt(0) != EventLog.MAGIC) {
+            channel.close();
+            throw new IOException("Not an event log: " + file);
+        }
+        rows = segments[0].getInt(4);
+        cols = segments[0].getInt(8);
+        long written = segments[0].getLong(16);
+        long slots = (size - EventLog.HEADER_SIZE) / EventLog.RECORD_SIZE;
+        // A log that was not closed (crash) ends at its first empty slot
+        events = written >= 0 ? Math.min(written, slots) : firstEmptySlot(slots);
+        start();
+    }
+
+    public long getEventCount() { return events; }
+    public long getPosition() { return position; }
+    public GridModel getGrid() { return grid; }
+    public long getCollected() { return collected; }
+
+    /**
+     * Moves the grid to the state right after the first event events, returns the new position
+     */
+    public long seek(long event) {
+        event = Math.max(0, Math.min(event, events));
+        if (event < position) start();
+        while (position < event) {
+            apply(position++);
+        }
+        return position;
+    }
+
+    // Empty grid, before the first event
+    private void start() {
+        grid = new GridModel(rows, cols);
+        Arrays.fill(robotCells, -1);
+        pickedAhead.clear();
+        collected = 0;
+        position = 0;
+    }
+
+    private long firstEmptySlot(long slots) {
+        for (long n = 0; n < slots; n++) {
+            if (type(n) == 0) return n;
+        }
+        return slots;
+    }
+
+    private byte type(long n) {
+        long offset = EventLog.HEADER_SIZE + n * EventLog.RECORD_SIZE;
+        return segments[(int) (offset >>> EventLog.SEGMENT_BITS)].get((int) (offset & (EventLog.SEGMENT_SIZE - 1)));
+    }
+
+    // ------------------ Applying events ------------------
+
+    private void apply(long n) {
+        long offset = EventLog.HEADER_SIZE + n * EventLog.RECORD_SIZE;
+        MappedByteBuffer segment = segments[(int) (offset >>> EventLog.SEGMENT_BITS)];
+        int i = (int) (offset & (EventLog.SEGMENT_SIZE - 1));
+        byte type = segment.get(i);
+        boolean pickedUp = (segment.get(i + 1) & EventLog.COLLECTED) != 0;
+        int id = segment.getInt(i + 4);
+        int row = segment.getInt(i + 8);
+        int col = segment.getInt(i + 12);
+        switch (type) {
+            case EventLog.PLACE:
+            case EventLog.MOVE:
+                leave(id);
+                enter(id, row, col, pickedUp);
+                if (pickedUp && type == EventLog.MOVE) collected++; // Placement pickups do not score
+                break;
+            case EventLog.REMOVE:
+                leave(id);
+                break;
+            case EventLog.OBSTACLE_ON:
+                grid.setState(row, col, GridModel.OBSTACLE);
+                break;
+            case EventLog.OBSTACLE_OFF:
+                if (grid.getState(row, col) == GridModel.OBSTACLE) grid.setState(row, col, GridModel.EMPTY);
+                break;
+            case EventLog.SPAWN:
+                if (!pickedAhead.remove((long) row * cols + col) && grid.getState(row, col) == GridModel.EMPTY) {
+                    grid.setState(row, col, GridModel.COLLECTIBLE);
+                }
+                break;
+            case EventLog.CLEAR:
+                if (grid.getState(row, col) == GridModel.COLLECTIBLE) grid.setState(row, col, GridModel.EMPTY);
+                break;
+            case EventLog.RESET:
+                grid.clearAll();
+                Arrays.fill(robotCells, -1);
+                pickedAhead.clear();
+                collected = 0; // The score starts over too
+                break;
+            default:
+                throw new IllegalStateException("Corrupt event log: type " + type + " at event " + n);
+        }
+    }
+
+    // Empties the robot's cell if it still holds the robot
+    private void leave(int id) {
+        if (id >= robotCells.length || robotCells[id] < 0) return;
+        int row = (int) (robotCells[id] / cols), col = (int) (robotCells[id] % cols);
+        if (grid.getState(row, col) == id) grid.setState(row, col, GridModel.EMPTY);
+        robotCells[id] = -1;
+    }
+
+    private void enter(int id, int row, int col, boolean pickedUp) {
+        if (id >= robotCells.length) {
+            int old = robotCells.length;
+            robotCells = Arrays.copyOf(robotCells, Math.max(id + 1, old * 2));
+            Arrays.fill(robotCells, old, robotCells.length, -1);
+        }
+        if (pickedUp) {
+            // The spawn of this collectible was logged after the pickup, skip it when it comes
+            if (grid.getState(row, col) != GridModel.COLLECTIBLE) pickedAhead.add((long) row * cols + col);
+        }
+        grid.setState(row, col, id);
+        robotCells[id] = (long) row * cols + col;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // ------------------ Command line ------------------
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java EventReplay <log file> [event]");
+            return;
+        }
+        try (EventReplay replay = new EventReplay(Paths.get(args[0]))) {
+            long target = args.length > 1 ? Long.parseLong(args[1]) : replay.getEventCount();
+            long start = System.nanoTime();
+            replay.seek(target);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            GridModel grid = replay.getGrid();
+            long robots = 0, obstacles = 0, collectibles = 0;
+            for (int r = 0; r < grid.getRows(); r++) {
+                for (int c = 0; c < grid.getCols(); c++) {
+                    int state = grid.getState(r, c);
+                    if (state > 0) robots++;
+                    else if (state == GridModel.OBSTACLE) obstacles++;
+                    else if (state == GridModel.COLLECTIBLE) collectibles++;
+                }
+            }
+            System.out.printf("%d x %d grid, event %d of %d, replayed in %.3f s (%.1f M events/s)%n",
+                    grid.getRows(), grid.getCols(), replay.getPosition(), replay.getEventCount(),
+                    seconds, replay.getPosition() / Math.max(seconds, 1e-9) / 1e6);
+            System.out.printf("robots %d, obstacles %d, collectibles %d, collected %d%n",
+                    robots, obstacles, collectibles, replay.getCollected());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs robots on a fixed ScheduledExecutorService
+ * Each robot is a delayed task that performs one step and reschedules itself with the
+ * robot's current move delay, so speed changes apply from the next step on
+ */
+public class ExecutorRobotScheduler implements RobotScheduler {
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    public ExecutorRobotScheduler(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread t = new Thread(r, "robot-executor-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public void start(Robot robot) {
+        schedule(robot, robot.getLife());
+    }
+
+    private void schedule(Robot robot, int life) {
+        try {
+            executor.schedule(() -> {
+                if (!robot.isRunning(life)) return; // Stopped (or respawned) robots simply drop out of the queue
+                try {
+                    robot.step();
+                } catch (RuntimeException e) {
+                    // The future would keep it unseen; the robot carries on with its next step
+                    System.err.println("Robot " + robot.getRobotId() + " step failed: " + e);
+                } finally {
+                    schedule(robot, life);
+                }
+            }, robot.getMoveDelay(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The scheduler was shut down, the robot is not moved anymore
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
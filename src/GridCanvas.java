@@ -0,0 +1,196 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * The GridCanvas class paints the grid as one Swing component
+ * The visible part of the grid (a viewport of at most MAX_VIEW_CELLS per side, scrolled with the
+ * mouse wheel, shift for horizontal) is drawn into a BufferedImage (one block of pixels per cell).
+ * Every frame copies the states of the viewport into a frame array that nothing else writes, compares
+ * the colors of its cells with the ones on screen and redraws the cells that differ (a robot respawned
+ * with the same id but another color is redrawn too). The view pulls from the model at its
+ * own frame rate, the robots never record anything for it, so moves cost the same with or without a window
+ */
+public class GridCanvas extends JComponent {
+
+    private static final Color GOLD = new Color(212, 175, 55);
+
+    private static final int MAX_IMAGE_SIZE = 2000; // Largest image side in pixels, bigger grids use 1 pixel per cell
+
+    private static final int MAX_VIEW_CELLS = 1000; // Largest number of cells shown per side
+
+    private final GridModel grid;
+
+    private final int viewRows, viewCols; // Size of the viewport in cells
+
+    private int viewRow = 0, viewCol = 0; // Top-left cell of the viewport
+
+    private boolean fullRedraw = true; // The whole viewport must be drawn on the next frame
+
+    private final int[] shown; // Colors of the viewport cells as drawn in the image
+    private final int[] frame; // States of the viewport cells being drawn
+
+    private final int cellSize; // Side of a cell in image pixels
+
+    private final BufferedImage image;
+
+    private final int[] pixels; // Pixels of the image, written directly
+
+    private Robot selectedRobot; // Drawn with a yellow border
+
+    private int selectedRow = -1, selectedCol = -1; // Cell where the selection border was last drawn
+
+    // Bounds of the cells changed during the current frame, in image pixels
+    private int dirtyMinX, dirtyMinY, dirtyMaxX, dirtyMaxY;
+
+    public GridCanvas(GridModel grid) {
+        this.grid = grid;
+        this.viewRows = Math.min(grid.getRows(), MAX_VIEW_CELLS);
+        this.viewCols = Math.min(grid.getCols(), MAX_VIEW_CELLS);
+        this.cellSize = Math.max(1, Math.min(24, MAX_IMAGE_SIZE / Math.max(viewRows, viewCols)));
+        image = new BufferedImage(viewCols * cellSize, viewRows * cellSize, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        shown = new int[viewRows * viewCols];
+        frame = new int[viewRows * viewCols];
+        setOpaque(true);
+
+        // Scroll the viewport over grids bigger than MAX_VIEW_CELLS
+        addMouseWheelListener(e -> {
+            int step = e.getWheelRotation() * Math.max(1, Math.min(viewRows, viewCols) / 10);
+            if (e.isShiftDown()) {
+                scrollTo(viewRow, viewCol + step);
+            } else {
+                scrollTo(viewRow + step, viewCol);
+            }
+        });
+    }
+
+    // Moves the top-left cell of the viewport, staying inside the grid
+    public void scrollTo(int row, int col) {
+        row = Math.max(0, Math.min(row, grid.getRows() - viewRows));
+        col = Math.max(0, Math.min(col, grid.getCols() - viewCols));
+        if (row != viewRow || col != viewCol) {
+            viewRow = row;
+            viewCol = col;
+            fullRedraw = true;
+        }
+    }
+
+    // Sets the robot drawn with the selection border (null for none)
+    public void setSelectedRobot(Robot robot) {
+        selectedRobot = robot;
+    }
+
+    /**
+     * Takes a frame of the viewport, redraws the cells that changed since the last one into the image
+     * and repaints their region
+     * Runs on the EDT, called by the frame timer
+     */
+    public void refresh() {
+        dirtyMinX = dirtyMinY = Integer.MAX_VALUE;
+        dirtyMaxX = dirtyMaxY = -1;
+        grid.copyStates(viewRow, viewCol, viewRows, viewCols, frame);
+        boolean full = fullRedraw;
+        fullRedraw = false;
+        for (int i = 0; i < frame.length; i++) {
+            int rgb = colorOf(grid, frame[i]).getRGB();
+            if (full || rgb != shown[i]) {
+                drawCell(i / viewCols, i % viewCols, rgb);
+                shown[i] = rgb;
+            }
+        }
+        if (dirtyMaxX >= 0) {
+            repaintImageRegion(dirtyMinX, dirtyMinY, dirtyMaxX - dirtyMinX, dirtyMaxY - dirtyMinY);
+        }
+        // The selection border follows the robot
+        Robot robot = selectedRobot;
+        int row = robot != null && inView(robot.getRow(), robot.getCol()) ? robot.getRow() - viewRow : -1;
+        int col = row >= 0 ? robot.getCol() - viewCol : -1;
+        if (row != selectedRow || col != selectedCol) {
+            if (selectedRow >= 0) repaintCell(selectedRow, selectedCol);
+            if (row >= 0) repaintCell(row, col);
+            selectedRow = row;
+            selectedCol = col;
+        }
+    }
+
+    // Returns true if the grid cell (row, col) is inside the viewport
+    private boolean inView(int row, int col) {
+        return row >= viewRow && row < viewRow + viewRows && col >= viewCol && col < viewCol + viewCols;
+    }
+
+    // Repaints the cell at (row, col) of the viewport
+    private void repaintCell(int row, int col) {
+        repaintImageRegion(col * cellSize, row * cellSize, cellSize, cellSize);
+    }
+
+    // Draws the cell at (row, col) of the viewport, in the given color, into the image and grows the dirty region
+    private void drawCell(int row, int col, int rgb) {
+        int x = col * cellSize;
+        int y = row * cellSize;
+        int gridLine = Color.GRAY.getRGB();
+        int width = image.getWidth();
+        boolean lines = cellSize >= 4; // Gray cell borders, only when cells are big enough to see them
+        for (int dy = 0; dy < cellSize; dy++) {
+            int offset = (y + dy) * width + x;
+            for (int dx = 0; dx < cellSize; dx++) {
+                boolean border = lines && (dx == 0 || dy == 0 || dx == cellSize - 1 || dy == cellSize - 1);
+                pixels[offset + dx] = border ? gridLine : rgb;
+            }
+        }
+        dirtyMinX = Math.min(dirtyMinX, x);
+        dirtyMinY = Math.min(dirtyMinY, y);
+        dirtyMaxX = Math.max(dirtyMaxX, x + cellSize);
+        dirtyMaxY = Math.max(dirtyMaxY, y + cellSize);
+    }
+
+    // Repaints the screen area showing the given image rectangle
+    private void repaintImageRegion(int x, int y, int w, int h) {
+        double sx = getWidth() / (double) image.getWidth();
+        double sy = getHeight() / (double) image.getHeight();
+        repaint((int) Math.floor(x * sx), (int) Math.floor(y * sy),
+                (int) Math.ceil(w * sx) + 1, (int) Math.ceil(h * sy) + 1);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g2.drawImage(image, 0, 0, getWidth(), getHeight(), null);
+        if (selectedRow >= 0) {
+            double cw = getWidth() / (double) viewCols;
+            double ch = getHeight() / (double) viewRows;
+            g2.setColor(Color.YELLOW);
+            g2.setStroke(new BasicStroke(3));
+            g2.drawRect((int) (selectedCol * cw) + 1, (int) (selectedRow * ch) + 1,
+                    (int) cw - 2, (int) ch - 2);
+        }
+    }
+
+    // Returns the row shown at the given y coordinate of the component
+    public int rowAt(int y) {
+        return viewRow + (int) ((long) y * viewRows / Math.max(1, getHeight()));
+    }
+
+    // Returns the column shown at the given x coordinate of the component
+    public int colAt(int x) {
+        return viewCol + (int) ((long) x * viewCols / Math.max(1, getWidth()));
+    }
+
+    // Returns the color of a cell in the given state, priority: obstacle --> robot occupant --> collectible -> empty
+    private static Color colorOf(GridModel grid, int state) {
+        if (state == GridModel.OBSTACLE) {
+            return Color.DARK_GRAY;
+        }
+        if (state > 0) {
+            Color color = grid.getRobotColor(state);
+            if (color != null) return color;
+        }
+        if (state == GridModel.COLLECTIBLE) {
+            // Gold color.
+            return GOLD;
+        }
+        return Color.WHITE;
+    }
+}
@@ -0,0 +1,708 @@
+import java.awt.*;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * The GridModel class holds the whole world state of the simulation
+ * Every cell is a single atomic int slot: EMPTY, OBSTACLE, COLLECTIBLE or the id (> 0) of the robot
+ * standing on it. Robots claim cells with compare-and-set, so moving never takes a lock and two
+ * robots can never end up in the same cell.
+ * Cells are stored in CHUNK_SIZE x CHUNK_SIZE chunks that are only allocated when something is
+ * written into them, so a huge, mostly empty world costs one reference per chunk.
+ * Each chunk also counts its free (EMPTY) cells, and the chunks that have some are kept in an indexed
+ * set, so a uniformly random free cell is found in bounded time however full the grid is (randomFreeCell).
+ * The model has no Swing dependency and can run on a machine without a display
+ */
+public class GridModel {
+
+    public static final int EMPTY = 0;        // Free cell
+    public static final int OBSTACLE = -1;    // Wall, cannot be entered
+    public static final int COLLECTIBLE = -2; // Free cell holding a collectible
+
+    // Groups of a neighbour mask (see neighbours), each with one bit per direction: 1 << (group + direction)
+    public static final int FREE = 0;         // EMPTY or COLLECTIBLE, can be entered
+    public static final int COLLECTIBLES = 4; // COLLECTIBLE, also FREE
+    public static final int BLOCKED = 8;      // OBSTACLE or outside the grid
+    public static final int ROBOTS = 12;      // Taken by a robot
+
+    public static final int CHUNK_BITS = 5;
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS; // Side of a chunk in cells
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int rows, cols; // Grid dimensions
+
+    private final int chunkCols; // Number of chunks in a row of chunks
+
+    private final AtomicReferenceArray<Chunk> chunks; // Null until a cell of the chunk is written
+
+    private final CopyOnWriteArrayList<GridListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile EventBus eventBus; // Publishes the changes when set
+
+    // Indexed set of the chunks that may have free cells: freeChunks[0 .. freeChunkCount) in any order,
+    // freeChunkSlot[chunk] = position in it or -1. Written under the freeChunks lock
+    private final int[] freeChunks;
+    private final AtomicIntegerArray freeChunkSlot;
+    private volatile int freeChunkCount;
+    private final int chunkRowSpan, chunkColSpan; // Size of a chunk, smaller on grids smaller than a chunk
+
+    /**
+     * Interface for services that depend on the layout of the grid (path cache, ...)
+     * Called on the thread that made the change
+     */
+    public interface GridListener {
+        // One cell became (or stopped being) an obstacle
+        default void obstacleChanged(int row, int col, boolean obstacle) {}
+
+        // Many obstacles changed at once (maze, reset), collectibles may have been removed too
+        default void obstaclesReplaced() {}
+
+        // A collectible was placed on (present) or removed from the cell, e.g. picked up by a robot
+        default void collectibleChanged(int row, int col, boolean present) {}
+    }
+
+    /**
+     * Interface for visiting robots, e.g. the robots near a cell
+     */
+    public interface RobotVisitor {
+        void visit(Robot robot);
+    }
+
+    /**
+     * A square block of cells and the number of free ones
+     */
+    private static final class Chunk {
+        static final AtomicIntegerFieldUpdater<Chunk> FREE = AtomicIntegerFieldUpdater.newUpdater(Chunk.class, "free");
+        static final AtomicIntegerFieldUpdater<Chunk> DIRTY = AtomicIntegerFieldUpdater.newUpdater(Chunk.class, "dirtyRows");
+
+        final int row0, col0; // Top-left cell of the chunk
+        final AtomicIntegerArray cells = new AtomicIntegerArray(CHUNK_SIZE * CHUNK_SIZE);
+        volatile int free; // EMPTY cells inside the grid
+        volatile int generation; // Grid generation the cells belong to, older cells all count as EMPTY
+        volatile int dirtyRows; // Bit r set: row r of the chunk may hold something else than EMPTY (CHUNK_SIZE = 32)
+
+        Chunk(int row0, int col0, int free, int generation) {
+            this.row0 = row0;
+            this.col0 = col0;
+            this.free = free;
+            this.generation = generation;
+        }
+    }
+
+    private volatile Robot[] robotsById = new Robot[16]; // Robot index by id, read without locking
+
+    private int nextRobotId = 1;
+
+    private volatile int generation = 0; // Bumped by clearAll, chunks of an older generation are cleared when next written
+
+    public GridModel(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        int chunkRows = (rows + CHUNK_SIZE - 1) >> CHUNK_BITS;
+        chunkCols = (cols + CHUNK_SIZE - 1) >> CHUNK_BITS;
+        chunks = new AtomicReferenceArray<>(Math.multiplyExact(chunkRows, chunkCols));
+        chunkRowSpan = Math.min(CHUNK_SIZE, rows);
+        chunkColSpan = Math.min(CHUNK_SIZE, cols);
+        freeChunks = new int[chunks.length()];
+        freeChunkSlot = new AtomicIntegerArray(chunks.length());
+        listAllChunks();
+    }
+
+    public int getRows() { return rows; }
+    public int getCols() { return cols; }
+
+    // Returns true if (row, col) lies inside the grid
+    public boolean inBounds(int row, int col) {
+        return row >= 0 && row < rows && col >= 0 && col < cols;
+    }
+
+    private int chunkIndex(int row, int col) {
+        return (row >> CHUNK_BITS) * chunkCols + (col >> CHUNK_BITS);
+    }
+
+    // Index of the cell inside its chunk
+    private static int offset(int row, int col) {
+        return ((row & CHUNK_MASK) << CHUNK_BITS) | (col & CHUNK_MASK);
+    }
+
+    // Returns chunk i, or null if it was never written or not since the last clearAll (only EMPTY cells)
+    private Chunk chunkForRead(int index) {
+        Chunk chunk = chunks.get(index);
+        return chunk == null || chunk.generation != generation ? null : chunk;
+    }
+
+    // Returns the chunk holding (row, col), allocating it or clearing what an older generation left in it
+    private Chunk chunkForWrite(int row, int col) {
+        int i = chunkIndex(row, col);
+        Chunk chunk = chunks.get(i);
+        if (chunk == null) {
+            Chunk created = new Chunk(row & ~CHUNK_MASK, col & ~CHUNK_MASK, chunkCapacity(i), generation);
+            chunk = chunks.compareAndExchange(i, null, created);
+            if (chunk == null) chunk = created;
+        }
+        if (chunk.generation != generation) renew(chunk, i);
+        return chunk;
+    }
+
+    // Clears a chunk of an older generation for reuse, once, whoever writes into it first
+    private void renew(Chunk chunk, int index) {
+        synchronized (chunk) {
+            int current = generation;
+            if (chunk.generation == current) return;
+            // Only the rows written in the previous generation, a sparse run leaves little to clear
+            for (int dirty = chunk.dirtyRows; dirty != 0; dirty &= dirty - 1) {
+                int start = Integer.numberOfTrailingZeros(dirty) << CHUNK_BITS;
+                for (int i = start; i < start + CHUNK_SIZE; i++) {
+                    chunk.cells.setPlain(i, EMPTY);
+                }
+            }
+            chunk.dirtyRows = 0;
+            chunk.free = chunkCapacity(index);
+            chunk.generation = current; // Volatile write publishes the cleared cells
+        }
+    }
+
+    public void addGridListener(GridListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeGridListener(GridListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Starts (or with null stops) publishing the changes of the grid; robots publish their own moves on it
+    public void setEventBus(EventBus events) {
+        eventBus = events;
+    }
+
+    public EventBus getEventBus() {
+        return eventBus;
+    }
+
+    // ------------------ Frames for views ------------------
+
+    /**
+     * Copies the states of the height x width block of cells starting at (row0, col0) into out, row by row
+     * Reads chunk by chunk and nothing is recorded on the moving threads, so the view costs the robots
+     * nothing; robots keep moving during the copy, so a robot crossing it may be seen in both cells or none
+     */
+    public void copyStates(int row0, int col0, int height, int width, int[] out) {
+        for (int r = row0; r < row0 + height; r++) {
+            int i = (r - row0) * width;
+            for (int c = col0; c < col0 + width; ) {
+                int end = Math.min(col0 + width, (c | CHUNK_MASK) + 1); // End of the chunk on this row
+                Chunk chunk = chunkForRead(chunkIndex(r, c));
+                if (chunk == null) {
+                    Arrays.fill(out, i, i + end - c, EMPTY);
+                    i += end - c;
+                } else {
+                    for (int offset = offset(r, c); c < end; c++, offset++) {
+                        out[i++] = chunk.cells.get(offset);
+                    }
+                }
+                c = end;
+            }
+        }
+    }
+
+    // ------------------ Robots ------------------
+
+    /**
+     * Hands out a new robot id and indexes the robot under it
+     * Together with the id stored in every occupied cell, this answers "who is at (r, c)" in O(1)
+     */
+    public synchronized int registerRobot(Robot robot) {
+        int id = nextRobotId++;
+        Robot[] index = robotsById;
+        if (id >= index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[id] = robot;
+        robotsById = index; // Volatile write publishes the robot before it takes a cell
+        return id;
+    }
+
+    // Removes a robot from the index, its id is not reused
+    public synchronized void unregisterRobot(int id) {
+        Robot[] index = robotsById;
+        if (id > 0 && id < index.length) {
+            index[id] = null;
+            robotsById = index;
+        }
+    }
+
+    // Returns the robot with the given id, or null if none
+    public Robot getRobot(int id) {
+        Robot[] index = robotsById;
+        return id > 0 && id < index.length ? index[id] : null;
+    }
+
+    // Visits every registered robot, pooled ones included (stopped, see Robot.respawn)
+    public void forEachRobot(RobotVisitor visitor) {
+        for (Robot robot : robotsById) {
+            if (robot != null) visitor.visit(robot);
+        }
+    }
+
+    // Returns the robot standing on (row, col), or null if none
+    public Robot getRobotAt(int row, int col) {
+        return getRobot(getState(row, col));
+    }
+
+    // Returns the color of the robot with the given id
+    public Color getRobotColor(int id) {
+        Robot robot = getRobot(id);
+        return robot != null ? robot.getColor() : null;
+    }
+
+    /**
+     * Visits every robot whose cell is within radius cells of (row, col), in both directions
+     * (a (2 * radius + 1) square clipped to the grid); costs O(radius^2) whatever the robot count
+     */
+    public void forEachRobotNear(int row, int col, int radius, RobotVisitor visitor) {
+        int r0 = Math.max(0, row - radius), r1 = Math.min(rows - 1, row + radius);
+        int c0 = Math.max(0, col - radius), c1 = Math.min(cols - 1, col + radius);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                Chunk chunk = chunkForRead(chunkIndex(r, c));
+                if (chunk == null) {
+                    // Skip the rest of an unallocated chunk on this row
+                    c |= CHUNK_MASK;
+                    continue;
+                }
+                int state = chunk.cells.get(offset(r, c));
+                if (state > 0) {
+                    Robot robot = getRobot(state);
+                    if (robot != null) visitor.visit(robot);
+                }
+            }
+        }
+    }
+
+    // ------------------ Cell state ------------------
+
+    // Returns the raw state of the cell: EMPTY, OBSTACLE, COLLECTIBLE or a robot id
+    public int getState(int row, int col) {
+        Chunk chunk = chunkForRead(chunkIndex(row, col));
+        return chunk == null ? EMPTY : chunk.cells.get(offset(row, col));
+    }
+
+    // Returns true if a robot may enter a cell in the given state
+    public static boolean isEnterable(int state) {
+        return state == EMPTY || state == COLLECTIBLE;
+    }
+
+    public boolean isOccupied(int row, int col) {
+        return getState(row, col) > 0;
+    }
+
+    public boolean isObstacle(int row, int col) {
+        return getState(row, col) == OBSTACLE;
+    }
+
+    public boolean isCollectible(int row, int col) {
+        return getState(row, col) == COLLECTIBLE;
+    }
+
+    /**
+     * Returns the states of the four neighbours of (row, col) packed into one int: for direction d
+     * (0 up, 1 down, 2 left, 3 right) bit FREE + d, COLLECTIBLES + d, BLOCKED + d or ROBOTS + d is set
+     * Read in one go, so a robot picks among the moves that can succeed instead of trying blindly;
+     * away from the chunk borders all four come from the chunk of the cell
+     */
+    public int neighbours(int row, int col) {
+        int r = row & CHUNK_MASK, c = col & CHUNK_MASK;
+        if (r > 0 && r < CHUNK_MASK && c > 0 && c < CHUNK_MASK && row + 1 < rows && col + 1 < cols) {
+            Chunk chunk = chunkForRead(chunkIndex(row, col));
+            if (chunk == null) return 0xF << FREE;
+            AtomicIntegerArray cells = chunk.cells;
+            int o = offset(row, col);
+            return neighbour(0, cells.get(o - CHUNK_SIZE)) | neighbour(1, cells.get(o + CHUNK_SIZE))
+                    | neighbour(2, cells.get(o - 1)) | neighbour(3, cells.get(o + 1));
+        }
+        return neighbour(0, row > 0 ? getState(row - 1, col) : OBSTACLE)
+                | neighbour(1, row + 1 < rows ? getState(row + 1, col) : OBSTACLE)
+                | neighbour(2, col > 0 ? getState(row, col - 1) : OBSTACLE)
+                | neighbour(3, col + 1 < cols ? getState(row, col + 1) : OBSTACLE);
+    }
+
+    // Bits of the neighbour in the given direction
+    private static int neighbour(int direction, int state) {
+        if (state == EMPTY) return 1 << (FREE + direction);
+        if (state == COLLECTIBLE) return (1 << (FREE + direction)) | (1 << (COLLECTIBLES + direction));
+        return 1 << ((state == OBSTACLE ? BLOCKED : ROBOTS) + direction);
+    }
+
+    /**
+     * Tries to put the robot into the cell with a compare-and-set
+     * Returns the state the cell had before the call: the claim succeeded only if
+     * isEnterable(previous) is true, and previous == COLLECTIBLE means the robot picked it up
+     */
+    public int claim(int row, int col, int robotId) {
+        Chunk chunk = chunkForWrite(row, col);
+        int i = offset(row, col);
+        while (true) {
+            int state = chunk.cells.get(i);
+            if (!isEnterable(state)) {
+                return state;
+            }
+            if (chunk.cells.compareAndSet(i, state, robotId)) {
+                written(chunk, i);
+                if (state == EMPTY) taken(chunk);
+                if (state == COLLECTIBLE) fireCollectibleChanged(row, col, false);
+                return state;
+            }
+        }
+    }
+
+    // Frees the cell if (and only if) the given robot still stands on it
+    public boolean release(int row, int col, int robotId) {
+        return changeState(row, col, robotId, EMPTY);
+    }
+
+    // Compare-and-set of one cell state, keeping the free cell counts
+    private boolean changeState(int row, int col, int expected, int state) {
+        Chunk chunk = expected == EMPTY ? chunkForWrite(row, col) : chunkForRead(chunkIndex(row, col));
+        if (chunk == null) return false; // Unallocated chunks only hold EMPTY cells
+        int i = offset(row, col);
+        if (chunk.cells.compareAndSet(i, expected, state)) {
+            if (state != EMPTY) written(chunk, i);
+            if (expected == EMPTY) taken(chunk);
+            else if (state == EMPTY) freed(chunk);
+            return true;
+        }
+        return false;
+    }
+
+    public void setObstacle(int row, int col, boolean value) {
+        if (changeObstacle(row, col, value)) {
+            EventBus events = eventBus;
+            if (events != null) events.obstacleChanged(row, col, value);
+            for (GridListener listener : listeners) {
+                listener.obstacleChanged(row, col, value);
+            }
+        }
+    }
+
+    // Sets or clears the obstacle without notifying listeners; returns true if the cell changed
+    private boolean changeObstacle(int row, int col, boolean value) {
+        if (value) {
+            // Walls replace free cells and collectibles, never robots
+            int state;
+            do {
+                state = getState(row, col);
+                if (!isEnterable(state)) return false;
+            } while (!changeState(row, col, state, OBSTACLE));
+            return true;
+        }
+        return changeState(row, col, OBSTACLE, EMPTY);
+    }
+
+    // Toggles the obstacle flag only if the cell is not occupied
+    public void toggleObstacle(int row, int col) {
+        setObstacle(row, col, !isObstacle(row, col));
+    }
+
+    // Places a collectible, only on a free cell; returns true if it was placed
+    public boolean placeCollectible(int row, int col) {
+        if (!changeState(row, col, EMPTY, COLLECTIBLE)) return false;
+        EventBus events = eventBus;
+        if (events != null) events.collectibleSpawned(row, col);
+        fireCollectibleChanged(row, col, true);
+        return true;
+    }
+
+    /**
+     * Overwrites the cell with no check and no listener, for rebuilding a grid (event log replay)
+     */
+    public void setState(int row, int col, int state) {
+        Chunk chunk = chunkForWrite(row, col);
+        int i = offset(row, col);
+        int previous = chunk.cells.getAndSet(i, state);
+        if (state != EMPTY) written(chunk, i);
+        if (previous == EMPTY && state != EMPTY) taken(chunk);
+        else if (previous != EMPTY && state == EMPTY) freed(chunk);
+    }
+
+    public void clearCollectible(int row, int col) {
+        if (changeState(row, col, COLLECTIBLE, EMPTY)) {
+            EventBus events = eventBus;
+            if (events != null) events.collectibleCleared(row, col);
+            fireCollectibleChanged(row, col, false);
+        }
+    }
+
+    private void fireCollectibleChanged(int row, int col, boolean present) {
+        for (GridListener listener : listeners) {
+            listener.collectibleChanged(row, col, present);
+        }
+    }
+
+    /**
+     * Turns every free cell into an obstacle (or every obstacle into a free cell) in one pass
+     * Robots keep their cells
+     */
+    public void fillObstacles(boolean value) {
+        EventBus layer = layerEvents();
+        byte type = value ? EventBus.OBSTACLE_ON : EventBus.OBSTACLE_OFF;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (changeObstacle(r, c, value) && layer != null) layer.publish(type, EventBus.LAYER, 0, r, c);
+            }
+        }
+        fireObstaclesReplaced();
+    }
+
+    // The bus if a subscriber wants the cells of a layer change one by one (the log), null otherwise
+    private EventBus layerEvents() {
+        EventBus events = eventBus;
+        return events != null && events.wants(EventBus.OBSTACLE_ON, EventBus.LAYER) ? events : null;
+    }
+
+    private void fireObstaclesReplaced() {
+        EventBus events = eventBus;
+        if (events != null) events.obstaclesReplaced();
+        for (GridListener listener : listeners) {
+            listener.obstaclesReplaced();
+        }
+    }
+
+    /**
+     * Commits a whole obstacle layer in one batch, chunk by chunk (bit row * cols + col set = obstacle)
+     * Cells not in the layer lose their obstacle, robots keep their cells
+     * Used by the maze generator, which builds the layer away from the live grid;
+     * rows of chunks are independent and committed in parallel
+     */
+    public void setObstacles(BitSet obstacles) {
+        if ((long) rows * cols > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Grid too large for an obstacle layer: " + rows + " x " + cols);
+        }
+        int chunkRows = (rows + CHUNK_SIZE - 1) >> CHUNK_BITS;
+        EventBus layer = layerEvents();
+        IntStream.range(0, chunkRows).parallel().forEach(chunkRowIndex -> {
+            int chunkRow = chunkRowIndex << CHUNK_BITS;
+            for (int chunkCol = 0; chunkCol < cols; chunkCol += CHUNK_SIZE) {
+                int rowEnd = Math.min(rows, chunkRow + CHUNK_SIZE);
+                int colEnd = Math.min(cols, chunkCol + CHUNK_SIZE);
+                Chunk chunk = chunkForRead(chunkIndex(chunkRow, chunkCol));
+                if (chunk == null) {
+                    // Nothing to clear in an unallocated chunk, only allocate it if it gets a wall
+                    boolean anyWall = false;
+                    for (int r = chunkRow; r < rowEnd && !anyWall; r++) {
+                        int next = obstacles.nextSetBit(r * cols + chunkCol);
+                        anyWall = next >= 0 && next < r * cols + colEnd;
+                    }
+                    if (!anyWall) continue;
+                    chunk = chunkForWrite(chunkRow, chunkCol);
+                }
+                for (int r = chunkRow; r < rowEnd; r++) {
+                    for (int c = chunkCol; c < colEnd; c++) {
+                        int i = offset(r, c);
+                        int state = chunk.cells.get(i);
+                        if (obstacles.get(r * cols + c)) {
+                            // Walls replace free cells and collectibles, never robots
+                            while (isEnterable(state)) {
+                                if (chunk.cells.compareAndSet(i, state, OBSTACLE)) {
+                                    written(chunk, i);
+                                    if (state == EMPTY) taken(chunk);
+                                    if (layer != null) layer.publish(EventBus.OBSTACLE_ON, EventBus.LAYER, 0, r, c);
+                                    break;
+                                }
+                                state = chunk.cells.get(i);
+                            }
+                        } else if (state == OBSTACLE && chunk.cells.compareAndSet(i, OBSTACLE, EMPTY)) {
+                            freed(chunk);
+                            if (layer != null) layer.publish(EventBus.OBSTACLE_OFF, EventBus.LAYER, 0, r, c);
+                        }
+                    }
+                }
+            }
+        });
+        fireObstaclesReplaced();
+    }
+
+    // ------------------ Free cells ------------------
+
+    // Number of cells of chunk i inside the grid (less than a full chunk on the last row and column)
+    private int chunkCapacity(int index) {
+        int row0 = (index / chunkCols) << CHUNK_BITS, col0 = (index % chunkCols) << CHUNK_BITS;
+        return Math.min(CHUNK_SIZE, rows - row0) * Math.min(CHUNK_SIZE, cols - col0);
+    }
+
+    // Returns the number of EMPTY cells of chunk i
+    private int chunkFree(int index) {
+        Chunk chunk = chunkForRead(index);
+        return chunk == null ? chunkCapacity(index) : chunk.free;
+    }
+
+    // Cell i of the chunk was set to something else than EMPTY: its row must be cleared by the next renew
+    private static void written(Chunk chunk, int i) {
+        int bit = 1 << (i >> CHUNK_BITS);
+        if ((chunk.dirtyRows & bit) == 0) Chunk.DIRTY.getAndAccumulate(chunk, bit, (rows, row) -> rows | row);
+    }
+
+    // An EMPTY cell of the chunk was filled
+    private static void taken(Chunk chunk) {
+        Chunk.FREE.decrementAndGet(chunk);
+    }
+
+    // A cell of the chunk became EMPTY
+    private void freed(Chunk chunk) {
+        // Full chunks stay listed until a search finds them full, so only a chunk that was dropped is listed again
+        if (Chunk.FREE.incrementAndGet(chunk) == 1) {
+            int index = chunkIndex(chunk.row0, chunk.col0);
+            if (freeChunkSlot.get(index) < 0) listFreeChunk(index);
+        }
+    }
+
+    private void listFreeChunk(int index) {
+        synchronized (freeChunks) {
+            if (freeChunkSlot.get(index) >= 0) return;
+            int slot = freeChunkCount;
+            freeChunks[slot] = index;
+            freeChunkSlot.set(index, slot);
+            freeChunkCount = slot + 1;
+        }
+    }
+
+    // Drops the chunk from the set if it has no free cell, called with the freeChunks lock held
+    private void unlistIfFull(int index) {
+        int slot = freeChunkSlot.get(index);
+        if (slot < 0) return;
+        freeChunkSlot.set(index, -1);
+        // A cell freed meanwhile saw the chunk listed and did not list it again: check after unlisting
+        if (chunkFree(index) > 0) {
+            freeChunkSlot.set(index, slot);
+            return;
+        }
+        int last = freeChunks[freeChunkCount - 1];
+        freeChunks[slot] = last;
+        if (last != index) freeChunkSlot.set(last, slot);
+        freeChunkCount--;
+    }
+
+    private void listAllChunks() {
+        synchronized (freeChunks) {
+            for (int i = 0; i < freeChunks.length; i++) {
+                freeChunks[i] = i;
+                freeChunkSlot.set(i, i);
+            }
+            freeChunkCount = freeChunks.length;
+        }
+    }
+
+    /**
+     * Returns a uniformly random EMPTY cell as row * cols + col, or -1 if the grid has none
+     * Draws a listed chunk then a cell of it until the cell is EMPTY: every free cell has the same chance,
+     * and a draw costs O(1) whatever the grid size. Full chunks leave the set as they are drawn, so the
+     * expected number of draws is (cells of a chunk / free cells of an average listed chunk), at most
+     * CHUNK_SIZE^2 however full the grid is. With robots moving, the cell may be taken again before
+     * the caller uses it
+     */
+    public long randomFreeCell(Random random) {
+        while (true) {
+            int count = freeChunkCount;
+            if (count == 0) return -1;
+            int index = freeChunks[random.nextInt(count)]; // Read without the lock, the cell is checked below
+            Chunk chunk = chunkForRead(index);
+            if (chunk != null && chunk.free == 0) {
+                synchronized (freeChunks) {
+                    unlistIfFull(index);
+                }
+                continue;
+            }
+            int row = ((index / chunkCols) << CHUNK_BITS) + random.nextInt(chunkRowSpan);
+            int col = ((index % chunkCols) << CHUNK_BITS) + random.nextInt(chunkColSpan);
+            if (row < rows && col < cols && getState(row, col) == EMPTY) return (long) row * cols + col;
+        }
+    }
+
+    // Returns the number of EMPTY cells of the grid (a moment's view while robots move)
+    public long getFreeCellCount() {
+        long count = 0;
+        for (int i = 0; i < chunks.length(); i++) {
+            count += chunkFree(i);
+        }
+        return count;
+    }
+
+    // ------------------ Bulk access for snapshots ------------------
+
+    // Number of chunks covering the grid, allocated or not, in row-major order
+    public int getChunkCount() {
+        return chunks.length();
+    }
+
+    /**
+     * Copies one bit per cell (bit offset of the cell in the chunk) of the obstacles and of the collectibles of
+     * chunk i; each array holds CHUNK_SIZE * CHUNK_SIZE / 64 longs
+     * Returns false, leaving the arrays untouched, if the chunk was never written
+     */
+    public boolean readChunkLayers(int index, long[] obstacles, long[] collectibles) {
+        Chunk chunk = chunkForRead(index);
+        if (chunk == null) return false;
+        Arrays.fill(obstacles, 0);
+        Arrays.fill(collectibles, 0);
+        for (int i = 0; i < chunk.cells.length(); i++) {
+            int state = chunk.cells.get(i);
+            if (state == OBSTACLE) obstacles[i >>> 6] |= 1L << i;
+            else if (state == COLLECTIBLE) collectibles[i >>> 6] |= 1L << i;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces chunk i with a chunk holding the given obstacles and collectibles (same layout as
+     * readChunkLayers) and no robot. Meant for a cleared grid with no robot moving;
+     * listeners are told once, by restoreFinished
+     */
+    public void restoreChunk(int index, long[] obstacles, long[] collectibles) {
+        int free = chunkCapacity(index);
+        Chunk chunk = new Chunk((index / chunkCols) << CHUNK_BITS, (index % chunkCols) << CHUNK_BITS, 0, generation);
+        EventBus layer = layerEvents();
+        for (int w = 0; w < obstacles.length; w++) {
+            long bits = obstacles[w] | collectibles[w];
+            while (bits != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                boolean obstacle = (obstacles[w] & (1L << i)) != 0;
+                // Plain writes: the chunk is not shared before chunks.set below
+                chunk.cells.setPlain(i, obstacle ? OBSTACLE : COLLECTIBLE);
+                chunk.dirtyRows |= 1 << (i >> CHUNK_BITS);
+                free--;
+                if (layer != null) {
+                    int row = chunk.row0 + (i >> CHUNK_BITS), col = chunk.col0 + (i & CHUNK_MASK);
+                    layer.publish(obstacle ? EventBus.OBSTACLE_ON : EventBus.SPAWN, EventBus.LAYER, 0, row, col);
+                }
+            }
+        }
+        chunk.free = free;
+        chunks.set(index, chunk);
+        if (free > 0) listFreeChunk(index);
+    }
+
+    // Tells the listeners that restoreChunk calls replaced the obstacles and collectibles
+    public void restoreFinished() {
+        fireObstaclesReplaced();
+    }
+
+    /**
+     * Clears occupants, obstacles and collectibles of every cell
+     * Starts a new generation instead of touching the cells: chunks of the previous one read as EMPTY and
+     * are cleared and reused by the first write into them, so a reset costs O(chunks), not O(cells),
+     * and the next run allocates nothing where the previous one already did
+     */
+    public void clearAll() {
+        generation++; // Resets and loads run one at a time
+        listAllChunks();
+        EventBus events = eventBus;
+        if (events != null) events.gridReset();
+        fireObstaclesReplaced();
+    }
+}
@@ -1,9 +1,222 @@
-import javax.swing.*;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * The Main class runs batches of headless simulations, for Monte Carlo experiments without a display
+ * Every combination of the listed values is run once per seed. Each run is a Simulation on a
+ * TimingWheelScheduler driven for a fixed simulated time, so it only depends on its parameters and seed
+ * and runs on one thread; runs are spread over a pool of threads. One CSV line is written per run,
+ * as soon as it completes, so an interrupted sweep keeps its results.
+ * Properties (lists are comma separated, seeds also take ranges like 1-1000):
+ *  batch.rows : grid rows (100)
+ *  batch.cols : grid columns (same as the rows)
+ *  batch.robots : robots per run (10)
+ *  batch.obstacles : share of cells turned into obstacles at random, 0 - 1 (0)
+ *  batch.maze : none or a MazeGenerator.Algorithm (none)
+ *  batch.policy : MovementPolicy names, blind, random, wall or seek (blind)
+ *  batch.seeds : seeds (1)
+ *  batch.collectibles : collectibles spawned at the start, more come every 4 simulated seconds (0)
+ *  batch.delay : robot move delay in simulated ms (500)
+ *  batch.time : simulated ms per run (60000)
+ *  batch.threads : runs at the same time (number of cores)
+ *  batch.csv : output file (standard output)
+ * Example: java -Dbatch.robots=10,100,1000 -Dbatch.obstacles=0,0.1,0.3 -Dbatch.seeds=1-100 -Dbatch.csv=sweep.csv Main
+ * The blocked_by_robot column counts the moves that ran into a robot, the collisions. Only blind robots pick
+ * directions without looking, so it is the default policy; the other policies step around the robots they see
+ * and the column then only counts the moves that lost a cell to a robot entering it first (almost none).
+ */
 public class Main {
-    public static void main(String[] args) {
 
+    private static final String HEADER = "run,rows,cols,robots,obstacles,maze,policy,seed,collectibles,delay_ms,"
+            + "time_ms,score,moves,blocked_by_robot,blocked_by_obstacle,blocked_out_of_bounds,wall_ms";
+
+    // Parameters of one run
+    private static final class Run {
+        final int index;
+        final int rows, cols, robots;
+        final double obstacles;
+        final MazeGenerator.Algorithm maze; // null: no maze
+        final String policy;
+        final long seed;
+        final int collectibles, delay;
+        final long time;
+
+        Run(int index, int rows, int cols, int robots, double obstacles, MazeGenerator.Algorithm maze,
+            String policy, long seed, int collectibles, int delay, long time) {
+            this.index = index;
+            this.rows = rows;
+            this.cols = cols;
+            this.robots = robots;
+            this.obstacles = obstacles;
+            this.maze = maze;
+            this.policy = policy;
+            this.seed = seed;
+            this.collectibles = collectibles;
+            this.delay = delay;
+            this.time = time;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Run> runs = plan();
+        int threads = Integer.getInteger("batch.threads", Runtime.getRuntime().availableProcessors());
+        String csvFile = System.getProperty("batch.csv");
+        PrintStream out = csvFile != null ? new PrintStream(Files.newOutputStream(Paths.get(csvFile)), false, "UTF-8")
+                : System.out;
+        System.err.printf("%d runs on %d threads%n", runs.size(), threads);
+        out.println(HEADER);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.nanoTime();
+        for (Run run : runs) {
+            pool.execute(() -> {
+                String line;
+                try {
+                    line = simulate(run);
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                    System.err.println("Run " + run.index + " failed: " + e);
+                    return;
+                }
+                synchronized (out) {
+                    out.println(line);
+                    out.flush();
+                }
+                int n = done.incrementAndGet();
+                if (csvFile != null && (n % 100 == 0 || n == runs.size())) {
+                    System.err.printf("%d / %d runs, %.0f s%n", n, runs.size(), (System.nanoTime() - start) / 1e9);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        if (out != System.out) out.close();
+        if (failed.get() > 0) {
+            System.err.printf("%d runs failed%n", failed.get());
+            System.exit(1);
+        }
+    }
+
+    // Every combination of the listed parameters, seeds varying fastest
+    private static List<Run> plan() {
+        String colsList = System.getProperty("batch.cols");
+        int[] rowsList = ints(System.getProperty("batch.rows", "100"));
+        int[] robotsList = ints(System.getProperty("batch.robots", "10"));
+        double[] obstaclesList = doubles(System.getProperty("batch.obstacles", "0"));
+        String[] mazes = System.getProperty("batch.maze", "none").split(",");
+        String[] policies = System.getProperty("batch.policy", "blind").split(",");
+        long[] seeds = seeds(System.getProperty("batch.seeds", "1"));
+        int collectibles = Integer.getInteger("batch.collectibles", 0);
+        int delay = Integer.getInteger("batch.delay", 500);
+        long time = Long.getLong("batch.time", 60_000);
+
+        List<Run> runs = new ArrayList<>();
+        for (int rows : rowsList) {
+            for (int cols : colsList != null ? ints(colsList) : new int[]{ rows }) {
+                for (int robots : robotsList) {
+                    for (double obstacles : obstaclesList) {
+                        for (String maze : mazes) {
+                            MazeGenerator.Algorithm algorithm = "none".equalsIgnoreCase(maze.trim())
+                                    ? null : MazeGenerator.Algorithm.valueOf(maze.trim().toUpperCase(Locale.ROOT));
+                            for (String policy : policies) {
+                                MovementPolicy.forName(policy.trim()); // Fails before any run for an unknown name
+                                for (long seed : seeds) {
+                                    runs.add(new Run(runs.size(), rows, cols, robots, obstacles, algorithm,
+                                            policy.trim(), seed, collectibles, delay, time));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return runs;
+    }
+
+    // Runs one simulation to its end, returns its CSV line
+    private static String simulate(Run run) {
+        long wallStart = System.nanoTime();
+        TimingWheelScheduler scheduler = new TimingWheelScheduler(0);
+        Simulation simulation = new Simulation(run.rows, run.cols, run.robots, scheduler, run.seed);
+        try {
+            simulation.setMoveDelay(run.delay);
+            simulation.setMovementPolicy(MovementPolicy.forName(run.policy));
+            simulation.enableMetrics(false);
+            // The grid is laid out before start() places the robots
+            if (run.maze != null) simulation.generateMaze(run.maze, run.seed);
+            if (run.obstacles > 0) addObstacles(simulation.getGrid(), run.obstacles, run.seed);
+            simulation.start();
+            simulation.spawnCollectibles(run.collectibles);
+            scheduler.runFor(run.time);
+
+            SimulationMetrics metrics = simulation.getMetrics();
+            return String.format(Locale.ROOT, "%d,%d,%d,%d,%s,%s,%s,%d,%d,%d,%d,%d,%d,%d,%d,%d,%.1f",
+                    run.index, run.rows, run.cols, run.robots, run.obstacles, run.maze != null ? run.maze : "none",
+                    run.policy, run.seed, run.collectibles, run.delay, run.time, simulation.getScore(),
+                    metrics.getMoves(), metrics.getBlockedByRobot(), metrics.getBlockedByObstacle(),
+                    metrics.getBlockedOutOfBounds(), (System.nanoTime() - wallStart) / 1e6);
+        } finally {
+            simulation.stop();
+        }
+    }
+
+    // Turns the given share of the free cells into obstacles, on top of a maze if there is one
+    private static void addObstacles(GridModel grid, double density, long seed) {
+        int rows = grid.getRows(), cols = grid.getCols();
+        if ((long) rows * cols > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Grid too large for random obstacles: " + rows + " x " + cols);
+        }
+        Random random = new Random(seed);
+        BitSet walls = new BitSet(rows * cols);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (grid.isObstacle(r, c) || random.nextDouble() < density) walls.set(r * cols + c);
+            }
+        }
+        grid.setObstacles(walls);
+    }
+
+    private static int[] ints(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) values[i] = Integer.parseInt(parts[i].trim());
+        return values;
+    }
+
+    private static double[] doubles(String list) {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) values[i] = Double.parseDouble(parts[i].trim());
+        return values;
+    }
+
+    // Seeds and ranges of seeds, e.g. "1-100,500"
+    private static long[] seeds(String list) {
+        List<Long> values = new ArrayList<>();
+        for (String part : list.split(",")) {
+            part = part.trim();
+            int dash = part.indexOf('-', 1); // A leading minus is a negative seed
+            if (dash < 0) {
+                values.add(Long.parseLong(part));
+            } else {
+                long last = Long.parseLong(part.substring(dash + 1));
+                for (long seed = Long.parseLong(part.substring(0, dash)); seed <= last; seed++) values.add(seed);
+            }
+        }
+        long[] seeds = new long[values.size()];
+        for (int i = 0; i < seeds.length; i++) seeds[i] = values.get(i);
+        return seeds;
     }
-}
\ No newline at end of file
+}
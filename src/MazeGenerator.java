@@ -0,0 +1,239 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * The MazeGenerator class builds mazes on a compact bit grid, away from the live GridModel
+ * Rooms sit on odd (row, col) cells, the cells between two rooms are the walls that get knocked down.
+ * The result is a BitSet of obstacle cells (index row * cols + col) that the caller commits to the
+ * grid in one batch. The same seed always gives the same maze.
+ */
+public class MazeGenerator {
+
+    /**
+     * Available maze algorithms
+     */
+    public enum Algorithm {
+        PRIM,        // Randomized Prim: grows from one room through a random frontier wall
+        KRUSKAL,     // Randomized Kruskal: knocks down walls in random order, union-find keeps it a tree
+        BACKTRACKER  // Recursive backtracker (iterative DFS): long winding corridors
+    }
+
+    private final int rows, cols;
+
+    private final int roomRows, roomCols; // Number of rooms per column / per row
+
+    private final BitSet open; // Cells that are passages
+
+    private final SplittableRandom random;
+
+    private MazeGenerator(int rows, int cols, long seed) {
+        if ((long) rows * cols > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Grid too large for a maze: " + rows + " x " + cols);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.roomRows = rows / 2;
+        this.roomCols = cols / 2;
+        this.open = new BitSet(rows * cols);
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Generates a maze for a rows x cols grid
+     * Returns the obstacle cells as a BitSet indexed by row * cols + col
+     */
+    public static BitSet generate(int rows, int cols, Algorithm algorithm, long seed) {
+        MazeGenerator generator = new MazeGenerator(rows, cols, seed);
+        if (generator.roomRows > 0 && generator.roomCols > 0) {
+            switch (algorithm) {
+                case PRIM:        generator.prim(); break;
+                case KRUSKAL:     generator.kruskal(); break;
+                case BACKTRACKER: generator.backtracker(); break;
+            }
+        }
+        // Everything that is not a passage is a wall
+        BitSet walls = new BitSet(rows * cols);
+        walls.set(0, rows * cols);
+        walls.andNot(generator.open);
+        return walls;
+    }
+
+    // ------------------ Room helpers ------------------
+
+    // Room number of the room at (1 + 2 * roomRow, 1 + 2 * roomCol)
+    private int cellOfRoom(int room) {
+        int r = 1 + 2 * (room / roomCols);
+        int c = 1 + 2 * (room % roomCols);
+        return r * cols + c;
+    }
+
+    private int randomRoom() {
+        return random.nextInt(roomRows * roomCols);
+    }
+
+    // Fills neighbours with the rooms next to the given room and returns how many there are
+    private int neighbourRooms(int room, int[] neighbours) {
+        int rr = room / roomCols, rc = room % roomCols;
+        int n = 0;
+        if (rr > 0) neighbours[n++] = room - roomCols;
+        if (rr < roomRows - 1) neighbours[n++] = room + roomCols;
+        if (rc > 0) neighbours[n++] = room - 1;
+        if (rc < roomCols - 1) neighbours[n++] = room + 1;
+        return n;
+    }
+
+    // Opens both rooms and the wall cell between them
+    private void connect(int roomA, int roomB) {
+        int a = cellOfRoom(roomA);
+        int b = cellOfRoom(roomB);
+        open.set(a);
+        open.set(b);
+        open.set((a + b) >>> 1); // The wall is exactly halfway between the two room cells
+    }
+
+    // ------------------ Algorithms ------------------
+
+    /**
+     * Randomized Prim's algorithm
+     * The frontier holds the walls between a visited room and an unvisited one. A wall is added once,
+     * when the room on its inside is reached, so there is nothing to deduplicate; a random wall is taken
+     * out with a swap-remove and a visited bit per room tells if it still leads somewhere: every step is O(1)
+     */
+    private void prim() {
+        int rooms = roomRows * roomCols;
+        BitSet visited = new BitSet(rooms);
+        long[] frontier = new long[16];
+        int size = 0;
+        int[] neighbours = new int[4];
+
+        int start = randomRoom();
+        visited.set(start);
+        open.set(cellOfRoom(start));
+        int current = start;
+        while (true) {
+            // Add the walls around the room just reached
+            int n = neighbourRooms(current, neighbours);
+            for (int i = 0; i < n; i++) {
+                if (!visited.get(neighbours[i])) {
+                    if (size == frontier.length) frontier = Arrays.copyOf(frontier, size * 2);
+                    frontier[size++] = ((long) current << 32) | neighbours[i];
+                }
+            }
+            // Take random frontier walls until one leads to an unvisited room
+            current = -1;
+            while (size > 0 && current < 0) {
+                int pick = random.nextInt(size);
+                long edge = frontier[pick];
+                frontier[pick] = frontier[--size];
+                int from = (int) (edge >>> 32);
+                int to = (int) edge;
+                if (!visited.get(to)) {
+                    visited.set(to);
+                    connect(from, to);
+                    current = to;
+                }
+            }
+            if (current < 0) break;
+        }
+    }
+
+    /**
+     * Randomized Kruskal's algorithm
+     * Every wall between two rooms is shuffled, then knocked down if its rooms are not connected yet
+     */
+    private void kruskal() {
+        int rooms = roomRows * roomCols;
+        // The first walls join a room to the room on its right, the others a room to the room below
+        int horizontal = roomRows * (roomCols - 1);
+        int vertical = (roomRows - 1) * roomCols;
+        int[] walls = new int[horizontal + vertical];
+        for (int i = 0; i < walls.length; i++) {
+            walls[i] = i;
+        }
+        for (int i = walls.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = walls[i];
+            walls[i] = walls[j];
+            walls[j] = t;
+        }
+
+        int[] parent = new int[rooms]; // Parent room, or -(tree size) for a root
+        Arrays.fill(parent, -1);
+        for (int i = 0; i < rooms; i++) {
+            open.set(cellOfRoom(i));
+        }
+        int joined = 0;
+        for (int w : walls) {
+            int a, b;
+            if (w < horizontal) {
+                a = (w / (roomCols - 1)) * roomCols + w % (roomCols - 1);
+                b = a + 1;
+            } else {
+                a = w - horizontal;
+                b = a + roomCols;
+            }
+            int ra = find(parent, a);
+            int rb = find(parent, b);
+            if (ra != rb) {
+                // Union by size: hang the smaller tree under the bigger one
+                if (parent[ra] > parent[rb]) {
+                    int t = ra;
+                    ra = rb;
+                    rb = t;
+                }
+                parent[ra] += parent[rb];
+                parent[rb] = ra;
+                connect(a, b);
+                if (++joined == rooms - 1) break; // Spanning tree complete
+            }
+        }
+    }
+
+    // Union-find root with full path compression
+    private static int find(int[] parent, int x) {
+        int root = x;
+        while (parent[root] >= 0) {
+            root = parent[root];
+        }
+        while (parent[x] >= 0 && parent[x] != root) {
+            int next = parent[x];
+            parent[x] = root;
+            x = next;
+        }
+        return root;
+    }
+
+    /**
+     * Recursive backtracker, with an explicit stack so big mazes cannot overflow the thread stack
+     */
+    private void backtracker() {
+        int rooms = roomRows * roomCols;
+        BitSet visited = new BitSet(rooms);
+        int[] stack = new int[rooms];
+        int top = 0;
+        int[] neighbours = new int[4];
+
+        int start = randomRoom();
+        visited.set(start);
+        open.set(cellOfRoom(start));
+        stack[top++] = start;
+        while (top > 0) {
+            int current = stack[top - 1];
+            int n = neighbourRooms(current, neighbours);
+            // Keep only the unvisited neighbours
+            int candidates = 0;
+            for (int i = 0; i < n; i++) {
+                if (!visited.get(neighbours[i])) neighbours[candidates++] = neighbours[i];
+            }
+            if (candidates == 0) {
+                top--;
+                continue;
+            }
+            int next = neighbours[random.nextInt(candidates)];
+            visited.set(next);
+            connect(current, next);
+            stack[top++] = next;
+        }
+    }
+}
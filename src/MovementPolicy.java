@@ -0,0 +1,94 @@
+/**
+ * The MovementPolicy interface decides where a robot steps when it does not follow a route
+ * Policies read the neighbour mask of the robot's cell (GridModel.neighbours), so they only pick among the
+ * moves that can succeed; -1 means no neighbour can be entered and the robot waits for the next step.
+ * A policy keeps no state of its own, a robot's past is read from the robot (e.g. its heading), so one
+ * instance serves every robot on every thread
+ */
+public interface MovementPolicy {
+
+    /**
+     * Returns the direction of the next move (0 up, 1 down, 2 left, 3 right), -1 to stay put
+     * random : random bits drawn by the caller, so a seeded run stays reproducible
+     */
+    int choose(Robot robot, int random);
+
+    // Any direction, blocked or not (the original behavior): the move fails on a wall or a robot
+    MovementPolicy BLIND = (robot, random) -> random & 3;
+
+    // Any neighbour that can be entered
+    MovementPolicy RANDOM = (robot, random) -> randomFree(neighboursOf(robot), random);
+
+    /**
+     * Keeps the wall on its left hand side: turns left if it can, else goes straight, right, or back
+     * Away from walls it goes straight on until it meets one; robots count as walls while they are there
+     */
+    MovementPolicy WALL_FOLLOWING = (robot, random) -> {
+        int neighbours = neighboursOf(robot);
+        int free = (neighbours >>> GridModel.FREE) & 0xF;
+        int heading = robot.getHeading();
+        if (heading < 0) return randomFree(neighbours, random);
+        if (((neighbours >>> GridModel.BLOCKED) & 0xF) == 0) {
+            return (free & (1 << heading)) != 0 ? heading : randomFree(neighbours, random);
+        }
+        int left = leftOf(heading);
+        if ((free & (1 << left)) != 0) return left;
+        if ((free & (1 << heading)) != 0) return heading;
+        if ((free & (1 << (left ^ 1))) != 0) return left ^ 1; // Right
+        return (free & (1 << (heading ^ 1))) != 0 ? heading ^ 1 : -1; // Back
+    };
+
+    /**
+     * Picks up a neighbouring collectible, else steps towards the nearest one along the robot's distance field
+     * (see Robot.setDistanceField), else moves like RANDOM
+     */
+    MovementPolicy SEEKING = (robot, random) -> {
+        int neighbours = neighboursOf(robot);
+        int collectibles = (neighbours >>> GridModel.COLLECTIBLES) & 0xF;
+        if (collectibles != 0) return pick(collectibles, random);
+        DistanceField field = robot.getDistanceField();
+        int dir = field != null ? field.directionToCollectible(robot.getRow(), robot.getCol(), random & 3) : -1;
+        if (dir >= 0 && (neighbours & (1 << (GridModel.FREE + dir))) != 0) return dir;
+        return randomFree(neighbours, random);
+    };
+
+    // Direction on the left of a heading: up -> left, down -> right, left -> down, right -> up
+    static int leftOf(int heading) {
+        return heading < 2 ? heading + 2 : 3 - heading;
+    }
+
+    static int neighboursOf(Robot robot) {
+        return robot.getGrid().neighbours(robot.getRow(), robot.getCol());
+    }
+
+    // A random free neighbour, -1 if none
+    static int randomFree(int neighbours, int random) {
+        int free = (neighbours >>> GridModel.FREE) & 0xF;
+        return free == 0 ? -1 : pick(free, random);
+    }
+
+    // One of the directions set in the 4 bit mask (not 0), chosen with the random bits
+    static int pick(int directions, int random) {
+        for (int k = (random >>> 2) % Integer.bitCount(directions); k > 0; k--) {
+            directions &= directions - 1;
+        }
+        return Integer.numberOfTrailingZeros(directions);
+    }
+
+    /**
+     * Returns the policy for the given name
+     * "blind" : a random direction, blocked or not (the original behavior)
+     * "random" : a random direction among those that can be entered
+     * "wall" : follows the walls, keeping them on its left
+     * "seek" : heads for the nearest collectible
+     */
+    static MovementPolicy forName(String name) {
+        switch (name) {
+            case "blind":  return BLIND;
+            case "random": return RANDOM;
+            case "wall":   return WALL_FOLLOWING;
+            case "seek":   return SEEKING;
+            default: throw new IllegalArgumentException("Unknown movement policy: " + name);
+        }
+    }
+}
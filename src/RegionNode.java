@@ -0,0 +1,276 @@
+import java.awt.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The RegionNode class runs the regions of a RegionScheduler in separate processes
+ * Each node owns one band of rows of the grid and hands the robots crossing into the band above or below
+ * to that node over a localhost socket, with the same claim-then-leave handoff as regions in one process.
+ * The robot is created again on the node it enters and removed from the one it left.
+ * Headless. Without node.index, launches node.count nodes in their own JVMs and checks no robot was lost
+ * Properties:
+ *  node.count : number of nodes (2)
+ *  node.port : port of node 0, node i listens on port + i (47300)
+ *  node.seconds : run time (10)
+ *  node.regions : regions (worker threads) per node (1)
+ *  robot.rows, robot.cols : grid size (1000 x 1000)
+ *  robot.count : robots per node (10000)
+ *  robot.delay : move delay in ms (1)
+ * Example: java -Dnode.count=4 -Dnode.seconds=30 RegionNode
+ */
+public class RegionNode {
+
+    private static final String RESULT = "node-result"; // Prefix of the line a node reports its robot counts on
+
+    private static final long SETTLE_MS = 2000; // Wait after halting, for the handoffs in flight to complete
+
+    // Messages, fixed size: type, ticket, row, col, then rgb, delay, seed for a handoff or the state for an answer
+    private static final int FRAME = 36;
+    private static final int HANDOFF = 1;
+    private static final int ANSWER = 2;
+
+    // A handoff sent to the other node, waiting for its answer
+    private static final class Pending {
+        final Robot robot;
+        final int life;
+        final int row, col;
+        final RegionScheduler.Region from;
+
+        Pending(Robot robot, int row, int col, RegionScheduler.Region from) {
+            this.robot = robot;
+            this.life = robot.getLife();
+            this.row = row;
+            this.col = col;
+            this.from = from;
+        }
+    }
+
+    /**
+     * The socket to the node owning the rows across one border of this node
+     */
+    static final class Link implements RegionScheduler.Border {
+        private final SocketChannel channel;
+        private final RegionScheduler scheduler;
+        private final ByteBuffer out = ByteBuffer.allocate(FRAME); // Guarded by this
+        private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<>();
+        private final AtomicLong tickets = new AtomicLong();
+        private volatile boolean closed = false;
+
+        Link(SocketChannel channel, RegionScheduler scheduler) {
+            this.channel = channel;
+            this.scheduler = scheduler;
+        }
+
+        // Starts answering the other node
+        void start(String name) {
+            Thread reader = new Thread(this::read, name);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        @Override
+        public boolean offerHandoff(Robot robot, int row, int col, RegionScheduler.Region from) {
+            if (closed || pending.size() >= RegionScheduler.QUEUE_CAPACITY) return false;
+            long ticket = tickets.incrementAndGet();
+            pending.put(ticket, new Pending(robot, row, col, from));
+            if (send(HANDOFF, ticket, row, col, robot.getColor().getRGB(), robot.getMoveDelay(),
+                    ThreadLocalRandom.current().nextLong())) {
+                return true;
+            }
+            pending.remove(ticket);
+            return false;
+        }
+
+        private synchronized boolean send(int type, long ticket, int row, int col, int a, int b, long seed) {
+            out.clear();
+            out.putInt(type).putLong(ticket).putInt(row).putInt(col).putInt(a).putInt(b).putLong(seed);
+            out.flip();
+            try {
+                while (out.hasRemaining()) channel.write(out);
+                return true;
+            } catch (IOException e) {
+                closed = true; // The other node is gone, robots stop crossing this border
+                return false;
+            }
+        }
+
+        private void read() {
+            ByteBuffer in = ByteBuffer.allocate(FRAME);
+            try {
+                while (true) {
+                    in.clear();
+                    while (in.hasRemaining()) {
+                        if (channel.read(in) < 0) return;
+                    }
+                    in.flip();
+                    int type = in.getInt();
+                    long ticket = in.getLong();
+                    int row = in.getInt(), col = in.getInt(), a = in.getInt(), b = in.getInt();
+                    long seed = in.getLong();
+                    if (type == HANDOFF) {
+                        scheduler.offerArrival(row, col, new Color(a), b, seed,
+                                state -> send(ANSWER, ticket, row, col, state, 0, 0));
+                    } else {
+                        Pending p = pending.remove(ticket);
+                        if (p != null) p.from.answerRemote(p.robot, p.life, p.row, p.col, a);
+                    }
+                }
+            } catch (IOException e) {
+                // Connection closed
+            } finally {
+                closed = true;
+            }
+        }
+
+        void close() throws IOException {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String index = System.getProperty("node.index");
+        if (index == null) {
+            launch();
+        } else {
+            runNode(Integer.parseInt(index));
+        }
+    }
+
+    // ------------------ Launcher ------------------
+
+    // Starts the nodes in their own JVMs with the same options, prints their output and checks the robot count
+    private static void launch() throws Exception {
+        int nodes = Integer.getInteger("node.count", 2);
+        List<Process> processes = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        long[][] results = new long[nodes][];
+        for (int i = 0; i < nodes; i++) {
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-Dnode.index=" + i);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(RegionNode.class.getName());
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            processes.add(process);
+            int node = i;
+            Thread reader = new Thread(() -> {
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith(RESULT)) {
+                            String[] parts = line.split(" ");
+                            results[node] = new long[]{ Long.parseLong(parts[1]), Long.parseLong(parts[2]) };
+                        } else {
+                            System.out.println("[node " + node + "] " + line);
+                        }
+                    }
+                } catch (IOException e) {
+                    System.out.println("[node " + node + "] " + e);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        long placed = 0, remaining = 0;
+        for (int i = 0; i < nodes; i++) {
+            processes.get(i).waitFor();
+            readers.get(i).join();
+            if (results[i] == null) throw new IllegalStateException("Node " + i + " failed");
+            placed += results[i][0];
+            remaining += results[i][1];
+        }
+        System.out.printf("%d nodes: %d robots placed, %d at the end: %s%n",
+                nodes, placed, remaining, placed == remaining ? "none lost" : "MISMATCH");
+        if (placed != remaining) System.exit(1);
+    }
+
+    // ------------------ Node ------------------
+
+    private static void runNode(int index) throws Exception {
+        int nodes = Integer.getInteger("node.count", 2);
+        int port = Integer.getInteger("node.port", 47300);
+        int seconds = Integer.getInteger("node.seconds", 10);
+        int rows = Integer.getInteger("robot.rows", 1000);
+        int cols = Integer.getInteger("robot.cols", 1000);
+        int count = Integer.getInteger("robot.count", 10000);
+        int delay = Integer.getInteger("robot.delay", 1);
+        int firstRow = (int) ((long) rows * index / nodes);
+        int endRow = (int) ((long) rows * (index + 1) / nodes);
+
+        GridModel grid = new GridModel(rows, cols);
+        RegionScheduler scheduler = new RegionScheduler(Integer.getInteger("node.regions", 1), firstRow, endRow);
+        scheduler.prepare(grid);
+
+        // Listen for the node below first, so the chain of connections cannot wait on itself
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        ServerSocketChannel server = index < nodes - 1
+                ? ServerSocketChannel.open().bind(new InetSocketAddress(loopback, port + index)) : null;
+        Link above = index > 0 ? new Link(connect(new InetSocketAddress(loopback, port + index - 1)), scheduler) : null;
+        Link below = server != null ? new Link(server.accept(), scheduler) : null;
+        if (server != null) server.close();
+        scheduler.setBorders(above, below);
+
+        Random random = new Random(Long.getLong("robot.seed", 42) + index);
+        int placed = 0;
+        for (int tries = 0; placed < count && tries < 10 * count; tries++) {
+            int row = firstRow + random.nextInt(endRow - firstRow), col = random.nextInt(cols);
+            try {
+                scheduler.start(new Robot(new Color(random.nextInt(0x1000000)), grid, delay, null,
+                        random.nextLong(), row, col));
+                placed++;
+            } catch (IllegalArgumentException taken) {
+                // Drawn again
+            }
+        }
+        if (above != null) above.start("link-above");
+        if (below != null) below.start("link-below");
+        System.out.printf("rows %d - %d, %d robots%n", firstRow, endRow - 1, placed);
+
+        long lastSteps = 0;
+        for (int s = 1; s <= seconds; s++) {
+            Thread.sleep(1000);
+            long steps = scheduler.getSteps();
+            System.out.printf("%ds: %d robots, %d steps/s, %d handoffs%n",
+                    s, scheduler.getRobotCount(), steps - lastSteps, scheduler.getHandoffs());
+            lastSteps = steps;
+        }
+        scheduler.halt();
+        Thread.sleep(SETTLE_MS);
+        System.out.printf("%s %d %d%n", RESULT, placed, scheduler.getRobotCount());
+        System.out.flush();
+        Thread.sleep(SETTLE_MS); // Keep answering while the other nodes settle
+        scheduler.shutdown();
+        if (above != null) above.close();
+        if (below != null) below.close();
+    }
+
+    // Connects to the node above, waiting for it to listen
+    private static SocketChannel connect(InetSocketAddress address) throws Exception {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (true) {
+            try {
+                return SocketChannel.open(address);
+            } catch (IOException notYet) {
+                if (System.currentTimeMillis() > deadline) throw notYet;
+                Thread.sleep(100);
+            }
+        }
+    }
+}
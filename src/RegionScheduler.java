@@ -0,0 +1,370 @@
+import java.awt.*;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/**
+ * The RegionScheduler class splits the grid into bands of rows, each owned by one worker thread
+ * A worker steps the robots of its band, so most claims on a cell come from one thread and rarely contend.
+ * The bands are not exclusive: the EDT, the CommandServer, collectible spawns and removeRobot write cells in any
+ * band, and handoffs release cells across regions. Every write goes through the grid's CAS claims, which
+ * keep the cells safe; the bands only cut down contention. A robot stepping across a border is handed to
+ * the neighbour: the neighbour claims the target cell for it (the robot then holds both cells, the new one
+ * being a ghost reservation), answers, and the old owner leaves the old cell and passes the robot over.
+ * Handoffs wait in a bounded queue per region; when it is full the move fails like a blocked one.
+ * The rows outside [firstRow, endRow) may belong to another process, reached through a Border (see RegionNode)
+ */
+public class RegionScheduler implements RobotScheduler {
+
+    static final int QUEUE_CAPACITY = 1024; // Handoffs waiting per region
+
+    static final int BUSY = Integer.MAX_VALUE; // Answer to a handoff that could not be queued, counts as blocked by a robot
+
+    /**
+     * Owner of the cells across a border: another region, or a node in another process
+     */
+    interface Border {
+        // Asks the owner to claim (row, col) for the robot and answer the region; false if its queue is full
+        boolean offerHandoff(Robot robot, int row, int col, Region from);
+    }
+
+    private final int regionCount;
+
+    private final int firstRow, endRow; // Rows scheduled here, -1: the whole grid
+
+    private volatile Region[] regions; // Created with the first robot, once the grid is known
+
+    private int bandHeight;
+
+    private GridModel grid;
+
+    private Border above, below; // Owners of the rows before firstRow and from endRow on, null if none
+
+    private Robot.CollectibleListener listener; // Given to the robots arriving from another process
+
+    private volatile boolean running = true;
+
+    private volatile boolean halted = false; // Robots stay put, handoffs in flight still complete
+
+    // One worker per core over the whole grid
+    public RegionScheduler(int regions) {
+        this(regions, -1, -1);
+    }
+
+    /**
+     * Schedules only the robots of rows [firstRow, endRow), the other rows belong to the borders (see setBorders)
+     */
+    public RegionScheduler(int regions, int firstRow, int endRow) {
+        this.regionCount = Math.max(1, regions);
+        this.firstRow = firstRow;
+        this.endRow = endRow;
+    }
+
+    // Owners of the rows before firstRow and from endRow on
+    public void setBorders(Border above, Border below) {
+        this.above = above;
+        this.below = below;
+    }
+
+    // Listener of the robots created for arrivals from another process
+    public void setListener(Robot.CollectibleListener listener) {
+        this.listener = listener;
+    }
+
+    // Creates the regions of the grid and starts their workers, done by the first start otherwise
+    public void prepare(GridModel grid) {
+        createRegions(grid);
+    }
+
+    @Override
+    public void start(Robot robot) {
+        Border owner = ownerOf(robot.getGrid(), robot.getRow());
+        if (!(owner instanceof Region)) {
+            throw new IllegalArgumentException("Robot outside the scheduled rows: " + robot.getRow());
+        }
+        Region region = (Region) owner;
+        region.post(() -> region.adopt(robot));
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        Region[] all = regions;
+        if (all != null) {
+            for (Region region : all) LockSupport.unpark(region.worker);
+        }
+    }
+
+    // Stops moving the robots; arrivals and answers are still handled, so every handoff completes
+    public void halt() {
+        halted = true;
+    }
+
+    /**
+     * Queues a robot arriving from another process at (row, col); reply gets the state the claim found
+     * (EMPTY or COLLECTIBLE if the robot was created here), immediately BUSY if the queue is full
+     */
+    public void offerArrival(int row, int col, Color color, int delay, long seed, IntConsumer reply) {
+        Region region = (Region) ownerOf(grid, row);
+        boolean queued = region.handoffs.offer(() -> {
+            int state = grid.getState(row, col);
+            try {
+                region.adopt(new Robot(color, grid, delay, listener, seed, row, col));
+            } catch (IllegalArgumentException taken) {
+                reply.accept(GridModel.isEnterable(state) ? BUSY : state);
+                return;
+            }
+            reply.accept(state);
+        });
+        if (queued) region.wake();
+        else reply.accept(BUSY);
+    }
+
+    // Robots owned by the regions, those being handed over may be counted twice or not at all
+    public int getRobotCount() {
+        int count = 0;
+        Region[] all = regions;
+        if (all != null) {
+            for (Region region : all) count += region.count;
+        }
+        return count;
+    }
+
+    // Automatic moves done so far
+    public long getSteps() {
+        long steps = 0;
+        Region[] all = regions;
+        if (all != null) {
+            for (Region region : all) steps += region.steps;
+        }
+        return steps;
+    }
+
+    // Robots that crossed into another region or process so far
+    public long getHandoffs() {
+        long handoffs = 0;
+        Region[] all = regions;
+        if (all != null) {
+            for (Region region : all) handoffs += region.handedOver;
+        }
+        return handoffs;
+    }
+
+    // Region, border or null (outside the grid) owning the row
+    private Border ownerOf(GridModel grid, int row) {
+        Region[] all = regions;
+        if (all == null) all = createRegions(grid);
+        int first = firstRow < 0 ? 0 : firstRow;
+        int end = endRow < 0 ? grid.getRows() : endRow;
+        if (row < first) return row >= 0 ? above : null;
+        if (row >= end) return row < grid.getRows() ? below : null;
+        return all[(row - first) / bandHeight];
+    }
+
+    private synchronized Region[] createRegions(GridModel grid) {
+        if (regions != null) return regions;
+        this.grid = grid;
+        int first = firstRow < 0 ? 0 : firstRow;
+        int end = endRow < 0 ? grid.getRows() : endRow;
+        bandHeight = Math.max(1, (end - first + regionCount - 1) / regionCount);
+        int count = (end - first + bandHeight - 1) / bandHeight;
+        Region[] all = new Region[count];
+        for (int k = 0; k < count; k++) all[k] = new Region(k);
+        regions = all;
+        for (Region region : all) region.worker.start();
+        return all;
+    }
+
+    // ------------------ Regions ------------------
+
+    /**
+     * A band of rows and the worker thread owning it
+     * Other threads only talk to it through its mailbox and its handoff queue, both run on the worker
+     */
+    final class Region implements Border {
+
+        final Thread worker;
+
+        private final ConcurrentLinkedQueue<Runnable> mail = new ConcurrentLinkedQueue<>(); // Answers and adoptions
+
+        private final ArrayBlockingQueue<Runnable> handoffs = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        private volatile boolean parked = false;
+
+        // Owned robots, only touched by the worker
+        private Robot[] robots = new Robot[64];
+        private long[] due = new long[64];          // Next step, System.nanoTime
+        private boolean[] away = new boolean[64];   // Waiting for the answer to a handoff
+        private int[] lives = new int[64];          // Life of the robot when adopted
+        private final IdentityHashMap<Robot, Integer> slots = new IdentityHashMap<>();
+        private volatile int count = 0;
+
+        private long steps, handedOver; // Only written by the worker
+
+        Region(int index) {
+            worker = new Thread(this::work, "region-" + index);
+            worker.setDaemon(true);
+        }
+
+        // Runs the task on the worker
+        void post(Runnable task) {
+            mail.add(task);
+            wake();
+        }
+
+        void wake() {
+            if (parked) LockSupport.unpark(worker);
+        }
+
+        @Override
+        public boolean offerHandoff(Robot robot, int row, int col, Region from) {
+            int life = robot.getLife();
+            boolean queued = handoffs.offer(() -> {
+                // The robot now holds its old cell and this one, until its owner answers;
+                // one stopped or respawned meanwhile claims nothing
+                int previous = BUSY;
+                if (robot.beginMove(life, false)) {
+                    try {
+                        previous = grid.claim(row, col, robot.getRobotId());
+                    } finally {
+                        robot.endMove();
+                    }
+                }
+                int found = previous;
+                from.post(() -> from.answered(robot, life, row, col, found, this));
+            });
+            if (queued) wake();
+            return queued;
+        }
+
+        /**
+         * Answer to a handoff to another process: on success the robot now lives there and leaves this one
+         */
+        void answerRemote(Robot robot, int life, int row, int col, int previous) {
+            post(() -> answered(robot, life, row, col, previous, null));
+        }
+
+        // Finishes a handoff once the owner of the target cell answered (to is null for another process)
+        private void answered(Robot robot, int life, int row, int col, int previous, Region to) {
+            Integer slot = slots.get(robot);
+            if (slot == null || lives[slot] != life) return; // The entry was reused by a new life
+            if (robot.getLife() != life) {
+                remove(slot); // Respawned elsewhere meanwhile, the new life is scheduled on its own
+                return;
+            }
+            if (!GridModel.isEnterable(previous)) {
+                robot.finishMove(row, col, previous); // Counted as blocked
+                away[slot] = false;
+                return;
+            }
+            remove(slot);
+            handedOver++;
+            if (to == null) {
+                leave(robot);
+            } else if (robot.finishMove(row, col, previous)) {
+                to.post(() -> to.adopt(robot));
+            } else {
+                // Moved by hand meanwhile, it stays here; or removed: free the ghost, unless the robot came back
+                // there in a new life
+                if (robot.isRunning(life)) adopt(robot);
+                to.post(() -> {
+                    if (robot.getLife() == life) grid.release(row, col, robot.getRobotId());
+                });
+            }
+        }
+
+        // The robot went to another process: it disappears from this grid
+        private void leave(Robot robot) {
+            robot.stopRobot();
+            grid.release(robot.getRow(), robot.getCol(), robot.getRobotId());
+            EventBus events = grid.getEventBus();
+            if (events != null) events.robotRemoved(robot.getRobotId());
+            grid.unregisterRobot(robot.getRobotId());
+        }
+
+        void adopt(Robot robot) {
+            Integer slot = slots.get(robot);
+            if (slot == null) {
+                if (count == robots.length) {
+                    robots = Arrays.copyOf(robots, count * 2);
+                    due = Arrays.copyOf(due, count * 2);
+                    away = Arrays.copyOf(away, count * 2);
+                    lives = Arrays.copyOf(lives, count * 2);
+                }
+                slot = count++;
+                robots[slot] = robot;
+                slots.put(robot, slot);
+            }
+            // A robot back in a new life takes over the entry of its old one
+            due[slot] = System.nanoTime() + robot.getMoveDelay() * 1_000_000L;
+            away[slot] = false;
+            lives[slot] = robot.getLife();
+        }
+
+        // Swaps the last robot into the slot
+        private void remove(int slot) {
+            slots.remove(robots[slot]);
+            int last = --count;
+            if (slot != last) {
+                robots[slot] = robots[last];
+                due[slot] = due[last];
+                away[slot] = away[last];
+                lives[slot] = lives[last];
+                slots.put(robots[slot], slot);
+            }
+            robots[last] = null;
+        }
+
+        private void work() {
+            while (running) {
+                Runnable task;
+                while ((task = mail.poll()) != null) task.run();
+                while ((task = handoffs.poll()) != null) task.run();
+                long now = System.nanoTime();
+                long wake = Long.MAX_VALUE;
+                for (int i = 0; i < count; i++) {
+                    if (away[i]) continue;
+                    Robot robot = robots[i];
+                    if (!robot.isRunning(lives[i])) {
+                        // Removed from the simulation: free its cell again, in case a move here raced the removal
+                        // (unless it was respawned, it stands elsewhere then)
+                        if (robot.getLife() == lives[i]) grid.release(robot.getRow(), robot.getCol(), robot.getRobotId());
+                        remove(i--);
+                        continue;
+                    }
+                    if (due[i] <= now && !halted) {
+                        step(i, robot);
+                        due[i] = now + robot.getMoveDelay() * 1_000_000L;
+                    }
+                    if (!away[i]) wake = Math.min(wake, due[i]);
+                }
+                long wait = (halted ? Long.MAX_VALUE : wake) - System.nanoTime();
+                if (wait > 0) {
+                    parked = true;
+                    if (mail.isEmpty() && handoffs.isEmpty()) LockSupport.parkNanos(this, Math.min(wait, 100_000_000L));
+                    parked = false;
+                }
+            }
+        }
+
+        // One automatic move: inside the band, or handed to the owner of the target cell
+        private void step(int slot, Robot robot) {
+            int dir = robot.nextDirection();
+            if (dir < 0) return;
+            steps++;
+            int row = robot.getRow() + (dir == 0 ? -1 : dir == 1 ? 1 : 0);
+            int col = robot.getCol() + (dir == 2 ? -1 : dir == 3 ? 1 : 0);
+            Border owner = ownerOf(grid, row);
+            if (owner == this || owner == null || !grid.inBounds(row, col)) {
+                robot.attemptMove(row, col);
+            } else if (owner.offerHandoff(robot, row, col, this)) {
+                away[slot] = true;
+            } else {
+                robot.finishMove(row, col, BUSY);
+            }
+        }
+    }
+}
@@ -1,32 +1,76 @@
 import java.awt.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The Robot class represents a robot that moves on the grid
- * It runs on its own thread
+ * It is a task run by a RobotScheduler: either as a loop on its own (virtual or platform) thread,
+ * or one step at a time on a shared executor
  */
-public class Robot extends Thread {
+public class Robot implements Runnable {
 
-    private int row, col; // Current grid position
+    private volatile int row, col; // Current grid position, only written under beginMove or while stopped
 
-    private final Color color;
+    private final int id; // Id stored in the occupied cell of the grid model
 
-    private final Cell[][] cells; // The grid cells
+    private volatile Color color;
+
+    private final GridModel grid; // The headless grid model
 
     private final int rows, cols; // Grid dimensions
 
     private volatile boolean manualControl = false;
 
-    private volatile boolean running = true; // Flag indicate the Thread running
+    private volatile boolean running = true; // Flag indicate the robot is still scheduled
+
+    private volatile int life = 0; // Counts the respawns, schedulers drop what they kept of an earlier life
+
+    private volatile Thread runner; // Thread running the loop, null when scheduled step by step
+
+    private final AtomicBoolean moving = new AtomicBoolean(); // A move is in progress, see beginMove and awaitMoves
 
     private volatile boolean paused = false;
 
-    private int moveDelay;
+    private volatile int moveDelay;
 
-    private final Random random = new Random(); // Random generator for movement.
+    private final Random random; // Random generator for placement and movement, reseeded by respawn
 
     private final CollectibleListener listener; // Listener to report when a collectible is collected
 
+    private volatile Route route; // Route being followed, null when moving randomly
+
+    private volatile MovementPolicy policy = MovementPolicy.RANDOM; // Picks the moves when there is no route
+
+    private volatile DistanceField seekField; // Read by the SEEKING policy
+
+    private int heading = -1; // Direction of the last move, -1 before the first; only written under beginMove
+
+    private volatile SimulationMetrics metrics; // Counts the move attempts when set
+
+    // Outcomes of the move attempts, this robot's stripe of the metrics; only written under beginMove
+    // (or while stopped), with release writes so the views reading them never see a stale or torn value
+    private long moves, blockedByRobot, blockedByObstacle, blockedOutOfBounds;
+
+    private long collected; // Collectibles picked up, the robot's score; written like the counters above
+
+    private static final VarHandle MOVES, BLOCKED_BY_ROBOT, BLOCKED_BY_OBSTACLE, BLOCKED_OUT_OF_BOUNDS, COLLECTED;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MOVES = lookup.findVarHandle(Robot.class, "moves", long.class);
+            BLOCKED_BY_ROBOT = lookup.findVarHandle(Robot.class, "blockedByRobot", long.class);
+            BLOCKED_BY_OBSTACLE = lookup.findVarHandle(Robot.class, "blockedByObstacle", long.class);
+            BLOCKED_OUT_OF_BOUNDS = lookup.findVarHandle(Robot.class, "blockedOutOfBounds", long.class);
+            COLLECTED = lookup.findVarHandle(Robot.class, "collected", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private int attempts; // Counted move attempts, picks the ones whose latency is sampled
 
     /**
      * Interface for reporting collectible events
@@ -36,48 +80,141 @@ public class Robot extends Thread {
         void collectibleCollected(Robot r);
     }
 
+    // A path from the path finder and how far along it the robot is
+    private static final class Route {
+        final PathFinder finder;
+        final PathFinder.Path path;
+        int index; // Position of the robot's cell in the path, only updated under beginMove
+
+        Route(PathFinder finder, PathFinder.Path path) {
+            this.finder = finder;
+            this.path = path;
+        }
+
+        int targetRow() { return path.getRow(path.length() - 1); }
+        int targetCol() { return path.getCol(path.length() - 1); }
+    }
+
     /**
-     * cells : the grid cells.
-     * rows : number of rows.
-     * cols : number of columns.
+     * grid : the grid model the robot moves on.
      * listener : listener to report collectible collection
+     * seed : seed of the robot's random generator, so placement and moves can be reproduced
      */
-    public Robot(Color color, Cell[][] cells, int rows, int cols, int moveDelay, CollectibleListener listener) {
+    public Robot(Color color, GridModel grid, int moveDelay, CollectibleListener listener, long seed) {
+        this(color, grid, moveDelay, listener, seed, -1, -1);
+    }
+
+    /**
+     * Same, starting at (startRow, startCol), which must be free (e.g. a robot restored from a snapshot)
+     * -1, -1 picks a random free cell
+     */
+    public Robot(Color color, GridModel grid, int moveDelay, CollectibleListener listener, long seed,
+                 int startRow, int startCol) {
         this.color = color;
-        this.cells = cells;
-        this.rows = rows;
-        this.cols = cols;
+        this.random = new Random(seed);
+        this.grid = grid;
+        this.rows = grid.getRows();
+        this.cols = grid.getCols();
         this.moveDelay = moveDelay;
         this.listener = listener;
-        // Place robot in a random free and non-obstacle cell
-        boolean placed = false;
-        while (!placed) {
-            int r = random.nextInt(rows);
-            int c = random.nextInt(cols);
-            synchronized (cells[r][c]) {
-                if (!cells[r][c].isOccupied() && !cells[r][c].isObstacle()) {
-                    cells[r][c].setOccupied(color);
-                    row = r;
-                    col = c;
-                    placed = true;
-                }
+        this.id = grid.registerRobot(this);
+        try {
+            spawn(startRow, startCol);
+        } catch (RuntimeException e) {
+            grid.unregisterRobot(id);
+            throw e;
+        }
+    }
+
+    /**
+     * Brings a stopped robot back as if it was new, keeping its id: a pool of robots can then be reused
+     * across resets instead of allocating and registering new ones (see Simulation.reset)
+     * Starts a new life: schedulers that still hold the robot from its previous life drop it (isRunning(life)),
+     * the caller starts it again. Same placement rules and exceptions as the constructor; the robot stays
+     * stopped if it cannot be placed
+     */
+    public void respawn(Color color, int moveDelay, long seed, int startRow, int startCol) {
+        if (running) throw new IllegalStateException("Robot " + id + " is still running");
+        this.color = color;
+        this.moveDelay = moveDelay;
+        random.setSeed(seed);
+        route = null;
+        heading = -1;
+        manualControl = false;
+        paused = false;
+        MOVES.setRelease(this, 0L);
+        BLOCKED_BY_ROBOT.setRelease(this, 0L);
+        BLOCKED_BY_OBSTACLE.setRelease(this, 0L);
+        BLOCKED_OUT_OF_BOUNDS.setRelease(this, 0L);
+        COLLECTED.setRelease(this, 0L);
+        attempts = 0;
+        spawn(startRow, startCol);
+        life++;
+        running = true;
+    }
+
+    // Places the robot at (startRow, startCol), or in a random free cell for -1, -1
+    private void spawn(int startRow, int startCol) {
+        if (startRow >= 0) {
+            if (!grid.inBounds(startRow, startCol) || !place(startRow, startCol)) {
+                throw new IllegalArgumentException("Cell not free for a robot: " + startRow + ", " + startCol);
             }
+            return;
+        }
+        // Place robot in a random free cell, drawn again if another robot takes it first
+        while (true) {
+            long cell = grid.randomFreeCell(random);
+            if (cell < 0) throw new IllegalStateException("No free cell left for a robot");
+            if (place((int) (cell / cols), (int) (cell % cols))) return;
         }
     }
 
+    // Claims the cell as the starting cell, returns false if it is taken
+    private boolean place(int r, int c) {
+        int previous = grid.claim(r, c, id);
+        if (!GridModel.isEnterable(previous)) return false;
+        row = r;
+        col = c;
+        EventBus events = grid.getEventBus();
+        if (events != null) events.robotPlaced(id, r, c, previous == GridModel.COLLECTIBLE);
+        return true;
+    }
+
     // Getters for current position and color.
     public int getRow() { return row; }
     public int getCol() { return col; }
+    public int getRobotId() { return id; }
     public Color getColor() { return color; }
+    public GridModel getGrid() { return grid; }
 
     // Sets a new move delay.
     public void setMoveDelay(int delay) {
         moveDelay = delay;
     }
 
-    // Enables or disables manual control.
+    public int getMoveDelay() { return moveDelay; }
+
+    public boolean isRunning() { return running; }
+
+    // Current life of the robot, see respawn
+    public int getLife() { return life; }
+
+    // True if the robot runs and is still in the given life
+    public boolean isRunning(int life) { return running && this.life == life; }
+
+    public boolean isPaused() { return paused; }
+
+    /**
+     * Enables or disables manual control
+     * Enabling it waits for an automatic move already under way, none starts afterwards:
+     * the caller's manual moves never race the robot's scheduler
+     */
     public void setManualControl(boolean manual) {
         manualControl = manual;
+        if (manual) {
+            route = null;
+            awaitMoves();
+        }
     }
 
     // Returns whether the robot is in manual control mode
@@ -85,41 +222,185 @@ public class Robot extends Thread {
         return manualControl;
     }
 
-    // Stops the robot thread
+    /**
+     * Makes the robot follow a shortest path to (targetRow, targetCol) instead of moving randomly
+     * Returns false if the target cannot be reached
+     */
+    public boolean navigateTo(PathFinder finder, int targetRow, int targetCol) {
+        PathFinder.Path path = finder.findPath(row, col, targetRow, targetCol);
+        // A one cell path means the robot is already there
+        route = path != null && path.length() > 1 ? new Route(finder, path) : null;
+        return path != null;
+    }
+
+    // Sets how the robot moves when it has no route
+    public void setMovementPolicy(MovementPolicy policy) {
+        this.policy = policy;
+    }
+
+    public MovementPolicy getMovementPolicy() { return policy; }
+
+    // Field the SEEKING policy follows to the nearest collectible (null: it only sees the neighbouring cells)
+    public void setDistanceField(DistanceField field) {
+        seekField = field;
+    }
+
+    public DistanceField getDistanceField() { return seekField; }
+
+    // Direction of the last move (0 up, 1 down, 2 left, 3 right), -1 if the robot has not moved yet
+    public int getHeading() { return heading; }
+
+    // Records the move attempts into the given metrics (null: no recording)
+    public void setMetrics(SimulationMetrics metrics) {
+        if (metrics != null) metrics.track(this);
+        this.metrics = metrics;
+    }
+
+    // Move counters, read by SimulationMetrics from any thread
+    public long getMoves() { return (long) MOVES.getAcquire(this); }
+    public long getBlockedByRobot() { return (long) BLOCKED_BY_ROBOT.getAcquire(this); }
+    public long getBlockedByObstacle() { return (long) BLOCKED_BY_OBSTACLE.getAcquire(this); }
+    public long getBlockedOutOfBounds() { return (long) BLOCKED_OUT_OF_BOUNDS.getAcquire(this); }
+
+    // Collectibles this robot picked up, counted with or without metrics
+    public long getCollected() { return (long) COLLECTED.getAcquire(this); }
+
+    // Stops the robot, waking its thread up if it is sleeping
     public void stopRobot() {
         running = false;
-        this.interrupt();
+        Thread t = runner;
+        if (t != null) t.interrupt();
+    }
+
+    /**
+     * Waits for the move still in progress on another thread: once it returns, a stopped robot claims no cell
+     * until it is respawned, so its cells can be released or the grid cleared, and a robot under manual control
+     * makes no automatic move. Not to be called while moving the robot
+     */
+    public void awaitMoves() {
+        while (moving.get()) Thread.onSpinWait();
     }
 
     /**
-     * Attempts to move the robot to (newRow, newCol)
+     * Starts a move of the given life of the robot, returns false if it was stopped or respawned, if another
+     * thread is moving it (a scheduler step and a manual move), or if it is an automatic move (manual false)
+     * of a robot under manual control: nothing may be claimed for it then. endMove must follow a true.
+     * The flag is set before running and manualControl are read, and stopRobot / setManualControl write them
+     * before awaitMoves reads the flag, so one of the two sees the other
+     */
+    boolean beginMove(int life, boolean manual) {
+        if (!moving.compareAndSet(false, true)) return false;
+        if (running && this.life == life && (manual || !manualControl)) return true;
+        moving.set(false);
+        return false;
+    }
+
+    void endMove() {
+        moving.set(false);
+    }
+
+    // True if (newRow, newCol) is next to the robot: a move computed before another thread moved it is dropped
+    private boolean isNeighbour(int newRow, int newCol) {
+        return Math.abs(newRow - row) + Math.abs(newCol - col) == 1;
+    }
+
+    /**
+     * Attempts to move the robot to (newRow, newCol), a neighbour of its cell
+     * The destination is claimed with a compare-and-set first and the source released after,
+     * so the move never blocks and a cell never holds two robots
+     * Fails without counting if another thread is moving the robot, or moved it since (newRow, newCol) was chosen,
+     * so the robot's cell, position and counters only ever change under one mover
      * If successful, also checks for collectible collection
+     * With metrics set, the outcome is counted and one attempt out of SimulationMetrics.SAMPLE_EVERY is timed
+     * An automatic move: nothing moves while the robot is under manual control (see manualMove)
      */
     public boolean attemptMove(int newRow, int newCol) {
-        // Check grid boundaries
-        if(newRow < 0 || newRow >= rows || newCol < 0 || newCol >= cols) return false;
-        synchronized (cells[newRow][newCol]) {
-            // Move only if destination is free and not an obstacle
-            if (!cells[newRow][newCol].isOccupied() && !cells[newRow][newCol].isObstacle()) {
-                // Clear the current cell
-                synchronized (cells[row][col]) {
-                    cells[row][col].clear();
-                }
-                // Occupy the new cell
-                cells[newRow][newCol].setOccupied(color);
-                // Update internal position
-                row = newRow;
-                col = newCol;
-                // If the new cell has a collectible, remove it and notify listener
-                if (cells[newRow][newCol].isCollectible()) {
-                    cells[newRow][newCol].clearCollectible();
-                    if(listener != null)
-                        listener.collectibleCollected(this);
-                }
-                return true;
+        return attemptMove(newRow, newCol, false);
+    }
+
+    private boolean attemptMove(int newRow, int newCol, boolean manual) {
+        // A robot stopped for a reset or a removal claims nothing, even if it was already on its way
+        if (!beginMove(life, manual)) return false;
+        try {
+            if (!isNeighbour(newRow, newCol)) return false;
+            SimulationMetrics m = metrics;
+            if (m == null) return GridModel.isEnterable(move(newRow, newCol));
+            int previous;
+            if (SimulationMetrics.sampled(attempts++)) {
+                long start = System.nanoTime();
+                previous = move(newRow, newCol);
+                m.moveTimed(System.nanoTime() - start);
+            } else {
+                previous = move(newRow, newCol);
             }
+            count(previous, newRow, newCol);
+            return GridModel.isEnterable(previous);
+        } finally {
+            endMove();
+        }
+    }
+
+    /**
+     * Finishes a move whose target cell was claimed for this robot by someone else, e.g. the worker owning
+     * the neighbour region (see RegionScheduler); previous is the state the claim found
+     * Leaves the current cell if the claim succeeded, and counts the outcome like attemptMove
+     * Returns false if the robot did not move, also when it was stopped or moved by another thread meanwhile:
+     * the caller then frees the claimed cell
+     */
+    public boolean finishMove(int newRow, int newCol, int previous) {
+        if (!beginMove(life, false)) return false;
+        try {
+            boolean moved = GridModel.isEnterable(previous);
+            if (moved) {
+                if (!isNeighbour(newRow, newCol)) return false;
+                enter(newRow, newCol, previous);
+            }
+            if (metrics != null) count(previous, newRow, newCol);
+            return moved;
+        } finally {
+            endMove();
+        }
+    }
+
+    // Counts the outcome of a move attempt; one mover at a time, so a plain read and a release write are enough
+    private void count(int previous, int newRow, int newCol) {
+        if (previous == GridModel.OBSTACLE) {
+            if (grid.inBounds(newRow, newCol)) BLOCKED_BY_OBSTACLE.setRelease(this, blockedByObstacle + 1);
+            else BLOCKED_OUT_OF_BOUNDS.setRelease(this, blockedOutOfBounds + 1);
+        } else if (previous > 0) {
+            BLOCKED_BY_ROBOT.setRelease(this, blockedByRobot + 1);
+        } else {
+            MOVES.setRelease(this, moves + 1);
+        }
+    }
+
+    // Does the move, returns the previous state of the target cell (OBSTACLE when outside the grid)
+    private int move(int newRow, int newCol) {
+        // Check grid boundaries
+        if (!grid.inBounds(newRow, newCol)) return GridModel.OBSTACLE;
+        // Move only if destination is free and not an obstacle
+        int previous = grid.claim(newRow, newCol, id);
+        if (GridModel.isEnterable(previous)) enter(newRow, newCol, previous);
+        return previous;
+    }
+
+    // Moves into the claimed cell and leaves the current one
+    private void enter(int newRow, int newCol, int previous) {
+        // Published before the old cell is released, so nobody can be seen entering it first
+        EventBus events = grid.getEventBus();
+        if (events != null) events.robotMoved(id, newRow, newCol, previous == GridModel.COLLECTIBLE);
+        // Clear the current cell
+        grid.release(row, col, id);
+        heading = newRow < row ? 0 : newRow > row ? 1 : newCol < col ? 2 : 3;
+        // Update internal position
+        row = newRow;
+        col = newCol;
+        advanceRoute();
+        // If the new cell had a collectible, the claim removed it: count it and notify listener
+        if (previous == GridModel.COLLECTIBLE) {
+            COLLECTED.setRelease(this, collected + 1);
+            if (listener != null) listener.collectibleCollected(this);
         }
-        return false;
     }
 
     /**
@@ -127,44 +408,113 @@ public class Robot extends Thread {
      * direction one of "UP", "DOWN", "LEFT", "RIGHT"
      */
     public boolean manualMove(String direction) {
+        switch(direction) {
+            case "UP":    return manualMove(0);
+            case "DOWN":  return manualMove(1);
+            case "LEFT":  return manualMove(2);
+            case "RIGHT": return manualMove(3);
+            default: return false;
+        }
+    }
+
+    /**
+     * Same with direction 0 up, 1 down, 2 left, 3 right (e.g. from a CommandServer controller)
+     */
+    public boolean manualMove(int direction) {
         int newRow = row;
         int newCol = col;
-        switch(direction) {
-            case "UP":    newRow--; break;
-            case "DOWN":  newRow++; break;
-            case "LEFT":  newCol--; break;
-            case "RIGHT": newCol++; break;
+        switch (direction) {
+            case 0: newRow--; break;
+            case 1: newRow++; break;
+            case 2: newCol--; break;
+            case 3: newCol++; break;
             default: return false;
         }
-        return attemptMove(newRow, newCol);
+        return attemptMove(newRow, newCol, true);
     }
 
     /**
-     * The main loop for the robot.
+     * The main loop for the robot, used by the thread based schedulers.
      * Moves automatically unless paused or in manual control.
      */
     @Override
     public void run() {
-        while(running) {
+        int mine = life;
+        runner = Thread.currentThread();
+        while(running && life == mine) {
             try {
                 Thread.sleep(moveDelay);
             } catch (InterruptedException e) {
-                if (!running) break;
-            }
-            // Skip automatic movement if paused or manually controlled.
-            if(paused || manualControl) continue;
-
-            // Choose a random direction.
-            int dir = random.nextInt(4);
-            int newRow = row;
-            int newCol = col;
-            switch (dir) {
-                case 0: newRow--; break;
-                case 1: newRow++; break;
-                case 2: newCol--; break;
-                case 3: newCol++; break;
+                if (!running || life != mine) break;
             }
-            attemptMove(newRow, newCol);
+            if (life != mine) break; // Respawned meanwhile, another thread runs the new life
+            step();
+        }
+        if (runner == Thread.currentThread()) runner = null;
+    }
+
+    /**
+     * Performs one automatic move, along the route if there is one, as the movement policy decides otherwise.
+     * Skipped if the robot is paused, manually controlled or stopped.
+     */
+    public void step() {
+        int dir = nextDirection();
+        if (dir < 0) return;
+        int newRow = row;
+        int newCol = col;
+        switch (dir) {
+            case 0: newRow--; break;
+            case 1: newRow++; break;
+            case 2: newCol--; break;
+            case 3: newCol++; break;
+        }
+        attemptMove(newRow, newCol);
+    }
+
+    /**
+     * Returns the direction of the next automatic move (see chooseDirection),
+     * -1 if the robot is paused, manually controlled or stopped, or has nowhere to go
+     */
+    public int nextDirection() {
+        if (!running || paused || manualControl) return -1;
+        return chooseDirection(random.nextInt());
+    }
+
+    /**
+     * Returns the direction of the next move (0 up, 1 down, 2 left, 3 right), -1 if there is none
+     * Follows the route when there is one, re-planning when a new obstacle blocks it,
+     * otherwise asks the movement policy, passing it the random bits.
+     * Also used by the TickEngine to build its intents.
+     * A robot in the way of a route is not routed around: the move fails and is tried again next time.
+     */
+    public int chooseDirection(int random) {
+        Route r = route;
+        if (r == null) return policy.choose(this, random);
+        PathFinder.Path path = r.path;
+        if (path.getRow(r.index) != row || path.getCol(r.index) != col
+                || grid.getState(path.getRow(r.index + 1), path.getCol(r.index + 1)) == GridModel.OBSTACLE) {
+            // Off the route (moved by hand) or the route is blocked: plan again from here
+            navigateTo(r.finder, r.targetRow(), r.targetCol());
+            r = route;
+            if (r == null) return policy.choose(this, random);
+            path = r.path;
+        }
+        int nextRow = path.getRow(r.index + 1);
+        int nextCol = path.getCol(r.index + 1);
+        if (nextRow < row) return 0;
+        if (nextRow > row) return 1;
+        return nextCol < col ? 2 : 3;
+    }
+
+    // Moves the route forward once the robot reaches its next cell, and drops it at the target
+    private void advanceRoute() {
+        Route r = route;
+        if (r == null) return;
+        if (r.path.getRow(r.index + 1) == row && r.path.getCol(r.index + 1) == col) {
+            r.index++;
+        }
+        if (r.index == r.path.length() - 1 && route == r) {
+            route = null;
         }
     }
 
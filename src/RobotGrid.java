@@ -1,41 +1,46 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.ArrayList;
-import java.util.Random;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
- * The RobotGrid class ties together the grid, the robots, and the control panel
- * It also implements logic for generating collectibles and responding to control events
+ * The RobotGrid class is the Swing front end of the simulation
+ * It shows the headless Simulation on a GridCanvas and forwards control events to it
  */
-public class RobotGrid extends JFrame implements ControlPanel.ControlListener, KeyListener, Robot.CollectibleListener {
-    public static final int ROWS = 25;
-    public static final int COLS = 25;
+public class RobotGrid extends JFrame implements ControlPanel.ControlListener, KeyListener {
 
-    private Cell[][] cells = new Cell[ROWS][COLS];
-    private JPanel gridPanel;
-    private ControlPanel controlPanel;
-    private ArrayList<Robot> robots = new ArrayList<>();
+    private static final int SCORE_REFRESH_MS = 250; // The score is read 4 times a second, not once per pickup
+
+    private static final int LEADERS = 5; // Robots shown on the leaderboard
 
-    private int moveDelay = 500;
+    private final Simulation simulation;
+    private final GridModel grid;
+
+    private GridCanvas gridCanvas;
+    private ControlPanel controlPanel;
 
     private boolean manualMode = false;
 
     private Robot selectedRobot = null; /// Robot selected for manual control
 
-    private int score = 0; // Global score for the collectible
+    private Timer viewTimer; // Repaints the changed cells from the model
 
-    private Timer collectibleTimer; // Time that generate the collectible
+    private Timer scoreTimer; // Reads the score and the leaderboard
 
-    public RobotGrid() {
+    /**
+     * fps : frames drawn per second, the view reads the model at that rate whatever the robots' speed
+     */
+    public RobotGrid(Simulation simulation, int fps) {
+        this.simulation = simulation;
+        this.grid = simulation.getGrid();
         setTitle("Interactive Robot Grid");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
 
-        // Create and initialize the grid panel
-        gridPanel = new JPanel(new GridLayout(ROWS, COLS));
-        initializeCells();
-        add(gridPanel, BorderLayout.CENTER);
+        // Create the grid canvas, a single component painting every cell
+        gridCanvas = new GridCanvas(grid);
+        add(gridCanvas, BorderLayout.CENTER);
 
         // Create the control panel and pass 'this' as the listener
         controlPanel = new ControlPanel(this);
@@ -51,40 +56,32 @@ public class RobotGrid extends JFrame implements ControlPanel.ControlListener, K
         requestFocusInWindow();
 
         // Mouse listener for cell clicks
-        gridPanel.addMouseListener(new MouseAdapter() {
+        gridCanvas.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
-                int cellWidth = gridPanel.getWidth() / COLS;
-                int cellHeight = gridPanel.getHeight() / ROWS;
-                int col = e.getX() / cellWidth;
-                int row = e.getY() / cellHeight;
-                if (row >= 0 && row < ROWS && col >= 0 && col < COLS) {
-                    Cell cell = cells[row][col];
+                int col = gridCanvas.colAt(e.getX());
+                int row = gridCanvas.rowAt(e.getY());
+                if (grid.inBounds(row, col)) {
                     if (manualMode) {
                         // In manual mode, if a robot is in the clicked cell, select it
-                        synchronized (cell) {
-                            if (cell.isOccupied()) {
-                                Robot clickedRobot = getRobotAt(row, col);
-                                if (clickedRobot != null) {
-                                    if (selectedRobot != null) {
-                                        selectedRobot.setManualControl(false);
-                                        cells[selectedRobot.getRow()][selectedRobot.getCol()]
-                                                .setBorder(BorderFactory.createLineBorder(Color.GRAY));
-                                    }
-                                    selectedRobot = clickedRobot;
-                                    selectedRobot.setManualControl(true);
-                                    cell.setBorder(BorderFactory.createLineBorder(Color.YELLOW, 3));
-                                }
+                        Robot clickedRobot = simulation.getRobotAt(row, col);
+                        if (clickedRobot != null) {
+                            if (selectedRobot != null) {
+                                selectedRobot.setManualControl(false);
                             }
+                            selectedRobot = clickedRobot;
+                            selectedRobot.setManualControl(true);
+                            gridCanvas.setSelectedRobot(selectedRobot);
+                        } else if (selectedRobot != null) {
+                            // Clicking another cell sends the selected robot there, arrow keys take it back
+                            selectedRobot.setManualControl(false);
+                            simulation.sendRobotTo(selectedRobot, row, col);
                         }
                     } else {
                         // When not in manual mode, toggle an obstacle
-                        synchronized (cell) {
-                            if (!cell.isOccupied()) {
-                                cell.toggleObstacle();
-                            }
-                        }
+                        simulation.toggleObstacle(row, col);
                     }
+                    refreshView();
                     requestFocusInWindow();
                 }
             }
@@ -98,105 +95,71 @@ public class RobotGrid extends JFrame implements ControlPanel.ControlListener, K
             }
         });
 
-        // Create initial robots
-        createInitialRobots();
-
-        // Set up a timer to generate collectibles every 4  seconds
-        collectibleTimer = new Timer(4000, e -> spawnCollectible());
-        collectibleTimer.start();
+        // The view follows the model at fps frames per second and the scores at SCORE_REFRESH_MS,
+        // robot threads never touch Swing themselves (a late frame is dropped, the Timer coalesces them)
+        viewTimer = new Timer(Math.max(1, 1000 / Math.max(1, fps)), e -> refreshView());
+        viewTimer.start();
+        scoreTimer = new Timer(SCORE_REFRESH_MS, e -> refreshScores());
+        scoreTimer.start();
     }
 
-    // Initializes all grid cells
-    private void initializeCells() {
-        gridPanel.removeAll();
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLS; j++) {
-                cells[i][j] = new Cell();
-                gridPanel.add(cells[i][j]);
-            }
-        }
-        gridPanel.revalidate();
-        gridPanel.repaint();
+    /**
+     * Draws a new frame of the model and moves the selection border
+     * Runs on the EDT
+     */
+    private void refreshView() {
+        gridCanvas.refresh();
     }
 
-    // Returns the robot at the specified position, or null if none.
-    private Robot getRobotAt(int row, int col) {
-        for (Robot robot : robots) {
-            if (robot.getRow() == row && robot.getCol() == col) {
-                return robot;
-            }
-        }
-        return null;
+    // Shows the current score and leaderboard, runs on the EDT
+    private void refreshScores() {
+        controlPanel.updateScore(simulation.getScore());
+        controlPanel.updateLeaderboard(simulation.getLeaderboard(LEADERS));
     }
 
     // ------------------ Action : ControlPanel Callback Methods ------------------------------------------------------
 
     @Override
     public void onStart() {
-        for (Robot robot : robots) {
-            robot.setPaused(false);
-        }
+        simulation.setPaused(false);
         requestFocusInWindow();
     }
 
     @Override
     public void onPause() {
-        for (Robot robot : robots) {
-            robot.setPaused(true);
-        }
+        simulation.setPaused(true);
         requestFocusInWindow();
     }
 
     @Override
     public void onReset() {
-        for (Robot robot : robots) {
-            robot.stopRobot();
-        }
-        robots.clear();
-        // Clear grid: remove robot colors, reset borders, remove obstacles and collectibles.
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLS; j++) {
-                synchronized(cells[i][j]) {
-                    cells[i][j].clear();
-                    cells[i][j].setBorder(BorderFactory.createLineBorder(Color.GRAY));
-                    if (cells[i][j].isObstacle()) {
-                        cells[i][j].setObstacle(false);
-                    }
-                    if (cells[i][j].isCollectible()) {
-                        cells[i][j].clearCollectible();
-                    }
-                }
-            }
-        }
-        score = 0;
-        controlPanel.updateScore(score);
-        createInitialRobots();
+        selectedRobot = null;
+        gridCanvas.setSelectedRobot(null);
+        simulation.reset();
+        refreshView();
         requestFocusInWindow();
     }
 
     @Override
     public void onAddRobot() {
         Color newColor = new Color((int)(Math.random() * 0x1000000));
-        // Pass 'this' as the CollectibleListener.
-        Robot newRobot = new Robot(newColor, cells, ROWS, COLS, moveDelay, this);
-        robots.add(newRobot);
-        newRobot.start();
+        try {
+            simulation.addRobot(newColor);
+        } catch (IllegalStateException full) {
+            Toolkit.getDefaultToolkit().beep(); // No free cell left
+        }
         requestFocusInWindow();
     }
 
     @Override
     public void onRemoveRobot() {
-        Robot toRemove = (selectedRobot != null) ? selectedRobot : (robots.isEmpty() ? null : robots.get(robots.size() - 1));
+        Robot toRemove = (selectedRobot != null) ? selectedRobot
+                : (simulation.getRobots().isEmpty() ? null : simulation.getRobots().get(simulation.getRobots().size() - 1));
         if (toRemove != null) {
-            toRemove.stopRobot();
-            int r = toRemove.getRow();
-            int c = toRemove.getCol();
-            synchronized(cells[r][c]) {
-                cells[r][c].clear();
-            }
-            robots.remove(toRemove);
+            simulation.removeRobot(toRemove);
             if (toRemove == selectedRobot) {
                 selectedRobot = null;
+                gridCanvas.setSelectedRobot(null);
             }
         }
         requestFocusInWindow();
@@ -207,139 +170,58 @@ public class RobotGrid extends JFrame implements ControlPanel.ControlListener, K
         this.manualMode = manualMode;
         if (!manualMode && selectedRobot != null) {
             selectedRobot.setManualControl(false);
-            int r = selectedRobot.getRow();
-            int c = selectedRobot.getCol();
-            cells[r][c].setBorder(BorderFactory.createLineBorder(Color.GRAY));
             selectedRobot = null;
+            gridCanvas.setSelectedRobot(null);
         }
         requestFocusInWindow();
     }
 
     @Override
     public void onSpeedChange(int delay) {
-        moveDelay = delay;
-        for (Robot robot : robots) {
-            robot.setMoveDelay(moveDelay);
-        }
+        simulation.setMoveDelay(delay);
         requestFocusInWindow();
     }
 
     @Override
-    public void onGenerateMaze() {
-        // Pause robot movement while generating the maze.
-        for (Robot robot : robots) {
-            robot.setPaused(true);
-        }
-        // Remove existing obstacles.
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLS; j++) {
-                cells[i][j].setObstacle(false);
-            }
-        }
-        // Fill every cell with an obstacle.
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLS; j++) {
-                cells[i][j].setObstacle(true);
-            }
-        }
-        // randomized Prim’s algorithm
-        ArrayList<int[]> walls = new ArrayList<>();
-        Random rand = new Random();
-        // Choose a random odd-indexed starting cell.
-        int startRow = rand.nextInt(ROWS);
-        if (startRow % 2 == 0) startRow = (startRow == ROWS - 1) ? startRow - 1 : startRow + 1;
-        int startCol = rand.nextInt(COLS);
-        if (startCol % 2 == 0) startCol = (startCol == COLS - 1) ? startCol - 1 : startCol + 1;
-        cells[startRow][startCol].setObstacle(false);
-        addWalls(startRow, startCol, walls);
-        while (!walls.isEmpty()) {
-            int[] wall = walls.remove(rand.nextInt(walls.size()));
-            int r = wall[0], c = wall[1];
-            int[] opposite = getOppositeCell(r, c);
-            if (opposite != null) {
-                int orow = opposite[0], ocol = opposite[1];
-                if (cells[orow][ocol].isObstacle()) {
-                    cells[r][c].setObstacle(false);
-                    cells[orow][ocol].setObstacle(false);
-                    addWalls(orow, ocol, walls);
-                }
-            }
-        }
-        // Resume robot movement.
-        for (Robot robot : robots) {
-            robot.setPaused(false);
-        }
+    public void onGenerateMaze(MazeGenerator.Algorithm algorithm) {
+        simulation.generateMaze(algorithm);
         requestFocusInWindow();
     }
 
-    /**
-     * Helper method to add walls (neighbors two cells away) from the cell at (row, col).
-     */
-    private void addWalls(int row, int col, ArrayList<int[]> walls) {
-        int[][] directions = { { -2, 0 }, { 2, 0 }, { 0, -2 }, { 0, 2 } };
-        for (int[] d : directions) {
-            int newRow = row + d[0];
-            int newCol = col + d[1];
-            if (newRow >= 0 && newRow < ROWS && newCol >= 0 && newCol < COLS) {
-                if (cells[newRow][newCol].isObstacle()) {
-                    int wallRow = row + d[0] / 2;
-                    int wallCol = col + d[1] / 2;
-                    boolean duplicate = false;
-                    for (int[] w : walls) {
-                        if (w[0] == wallRow && w[1] == wallCol) {
-                            duplicate = true;
-                            break;
-                        }
-                    }
-                    if (!duplicate) {
-                        walls.add(new int[]{wallRow, wallCol});
-                    }
-                }
-            }
-        }
-    }
-
-    /**
-     * Given a wall cell at (wallRow, wallCol), returns the coordinates of the cell
-     * on the opposite side of the wall relative to a passage.
-     */
-    private int[] getOppositeCell(int wallRow, int wallCol) {
-        int[][] directions = { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
-        for (int[] d : directions) {
-            int passageRow = wallRow - d[0];
-            int passageCol = wallCol - d[1];
-            int oppositeRow = wallRow + d[0];
-            int oppositeCol = wallCol + d[1];
-            if (passageRow >= 0 && passageRow < ROWS && passageCol >= 0 && passageCol < COLS &&
-                    oppositeRow >= 0 && oppositeRow < ROWS && oppositeCol >= 0 && oppositeCol < COLS) {
-                if (!cells[passageRow][passageCol].isObstacle()) {
-                    return new int[]{oppositeRow, oppositeCol};
-                }
+    @Override
+    public void onSaveSnapshot() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            try {
+                simulation.saveSnapshot(chooser.getSelectedFile().toPath());
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(this, "Could not save: " + e.getMessage());
             }
         }
-        return null;
+        requestFocusInWindow();
     }
 
-    /**
-     * Spawns a collectible in a random free cell.
-     */
-    private void spawnCollectible() {
-        Random rand = new Random();
-        int r = rand.nextInt(ROWS);
-        int c = rand.nextInt(COLS);
-        synchronized(cells[r][c]) {
-            // Only place a collectible if the cell is free, not an obstacle, and not already holding one.
-            if (!cells[r][c].isOccupied() && !cells[r][c].isObstacle() && !cells[r][c].isCollectible()) {
-                cells[r][c].setCollectible(true);
+    @Override
+    public void onLoadSnapshot() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            selectedRobot = null;
+            gridCanvas.setSelectedRobot(null);
+            try {
+                simulation.loadSnapshot(chooser.getSelectedFile().toPath());
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(this, "Could not load: " + e.getMessage());
             }
+            refreshView();
         }
+        requestFocusInWindow();
     }
 
     // ------------------ KeyListener Methods for Manual Control ------------------
 
     @Override
     public void keyPressed(KeyEvent e) {
-        if (selectedRobot != null && selectedRobot.isManualControl()) {
+        if (selectedRobot != null && manualMode) {
             String direction = null;
             switch(e.getKeyCode()){
                 case KeyEvent.VK_UP:    direction = "UP"; break;
@@ -348,17 +230,10 @@ public class RobotGrid extends JFrame implements ControlPanel.ControlListener, K
                 case KeyEvent.VK_RIGHT: direction = "RIGHT"; break;
             }
             if (direction != null) {
+                selectedRobot.setManualControl(true); // Also drops its route and waits for a step under way
                 selectedRobot.manualMove(direction);
-                // Reset all cell borders.
-                for (int i = 0; i < ROWS; i++){
-                    for (int j = 0; j < COLS; j++){
-                        cells[i][j].setBorder(BorderFactory.createLineBorder(Color.GRAY));
-                    }
-                }
-                // Highlight the selected robot's cell.
-                int r = selectedRobot.getRow();
-                int c = selectedRobot.getCol();
-                cells[r][c].setBorder(BorderFactory.createLineBorder(Color.YELLOW, 3));
+                // Move the selection border right away instead of waiting for the next frame
+                refreshView();
             }
         }
     }
@@ -366,47 +241,60 @@ public class RobotGrid extends JFrame implements ControlPanel.ControlListener, K
     @Override public void keyReleased(KeyEvent e) {}
     @Override public void keyTyped(KeyEvent e) {}
 
-    // ------------------ Robot.CollectibleListener Implementation ------------------
-
-    /**
-     * Called by a robot when it collects a collectible.
-     * Increments the score and updates the display.
-     */
-    @Override
-    public void collectibleCollected(Robot r) {
-        score++;
-        SwingUtilities.invokeLater(() -> controlPanel.updateScore(score));
-    }
-
-    // ------------------ Helper Method to Create Initial Robots ------------------
-
-    private void createInitialRobots() {
-        // Create 5 robots with distinct colors.
-        Robot robot1 = new Robot(Color.RED, cells, ROWS, COLS, moveDelay, this);
-        Robot robot2 = new Robot(Color.BLUE, cells, ROWS, COLS, moveDelay, this);
-        Robot robot3 = new Robot(Color.GREEN, cells, ROWS, COLS, moveDelay, this);
-        Robot robot4 = new Robot(Color.ORANGE, cells, ROWS, COLS, moveDelay, this);
-        Robot robot5 = new Robot(Color.MAGENTA, cells, ROWS, COLS, moveDelay, this);
-        robots.add(robot1);
-        robots.add(robot2);
-        robots.add(robot3);
-        robots.add(robot4);
-        robots.add(robot5);
-
-        // Start each robot's thread.
-        for (Robot r : robots) {
-            r.start();
-        }
-    }
-
     // ------------------ Main Method ------------------
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException, IOException {
+        // Grid size and robot count come from -Drobot.rows, -Drobot.cols and -Drobot.count,
+        // the scheduler mode from -Drobot.scheduler=virtual|executor|thread|tick,
+        // -Drobot.seed makes a run reproducible, -Drobot.policy=blind|random|wall|seek picks how robots move
+        // (random, -Drobot.seek=true is the same as seek),
+        // metrics are published over JMX unless -Drobot.metrics=false,
+        // -Drobot.log=file records every change for EventReplay,
+        // -Drobot.snapshot=file starts from a saved snapshot (its grid size wins over robot.rows / robot.cols),
+        // -Drobot.fps sets the frame rate of the view (60),
+        // -Drobot.commands=port lets CommandServer controllers drive the robots
+        int rows = Integer.getInteger("robot.rows", 25);
+        int cols = Integer.getInteger("robot.cols", 25);
+        String snapshotFile = System.getProperty("robot.snapshot");
+        if (snapshotFile != null) {
+            int[] size = Snapshot.readSize(Paths.get(snapshotFile));
+            rows = size[0];
+            cols = size[1];
+        }
+        int count = Integer.getInteger("robot.count", 5);
+        long seed = Long.getLong("robot.seed", System.nanoTime());
+        Simulation simulation = new Simulation(rows, cols, count, RobotScheduler.fromSystemProperty(), seed);
+        simulation.setMovementPolicy(MovementPolicy.forName(
+                System.getProperty("robot.policy", Boolean.getBoolean("robot.seek") ? "seek" : "random")));
+        if (!"false".equals(System.getProperty("robot.metrics"))) {
+            simulation.enableMetrics();
+        }
+        String logFile = System.getProperty("robot.log");
+        if (logFile != null) {
+            simulation.enableEventLog(Paths.get(logFile));
+            Runtime.getRuntime().addShutdownHook(new Thread(simulation::stop));
+        }
+        simulation.start();
+        if (snapshotFile != null) {
+            simulation.loadSnapshot(Paths.get(snapshotFile));
+        }
+        Integer commandPort = Integer.getInteger("robot.commands");
+        if (commandPort != null) {
+            CommandServer commands = new CommandServer(simulation.getGrid(), commandPort, 2, 50);
+            System.out.println("Robot commands on port " + commands.getPort());
+        }
+        // Without a display the simulation simply runs headless,
+        // robot threads may be daemon threads so keep the main thread alive
+        if (GraphicsEnvironment.isHeadless()) {
+            Thread.currentThread().join();
+            return;
+        }
         /*
         SwingUtilities.invokeLater() is a best practice in Swing programming
         for deferring UI updates to the EDT ->Event Dispatch Thread,
         ensuring thread safety and a responsive user interface
          */
-        SwingUtilities.invokeLater(() -> new RobotGrid());
+        int fps = Integer.getInteger("robot.fps", 60);
+        SwingUtilities.invokeLater(() -> new RobotGrid(simulation, fps));
     }
 }
@@ -0,0 +1,64 @@
+/**
+ * The RobotScheduler interface decides how robots get CPU time
+ * A robot is just a task, the scheduler chooses whether it runs on a platform thread,
+ * a virtual thread or a shared executor
+ */
+public interface RobotScheduler {
+
+    // Starts moving the robot
+    void start(Robot robot);
+
+    // Stops every robot and releases the scheduler threads
+    void shutdown();
+
+    // Called when the global move delay changes, robots already carry their own delay
+    default void setMoveDelay(int delay) {}
+
+    // Called when the simulation records metrics, for schedulers that have their own (tick latency)
+    default void setMetrics(SimulationMetrics metrics) {}
+
+    /**
+     * Runs the task every period ms of the scheduler's own clock
+     * Returns false if the scheduler follows the wall clock, the caller then uses a timer of its own
+     */
+    default boolean scheduleEvery(long period, Runnable task) {
+        return false;
+    }
+
+    /**
+     * True if a run only depends on its seeds, never on thread timing (TickEngine, TimingWheelScheduler):
+     * what robots see must then be updated by the changes themselves, not later on another thread
+     */
+    default boolean isDeterministic() {
+        return false;
+    }
+
+    /**
+     * Creates the scheduler for the given mode
+     * "thread" : one platform thread per robot (the original behavior)
+     * "virtual" : one virtual thread per robot
+     * "executor" : a fixed pool sized to the number of cores, robots move one step per task
+     * "tick" : deterministic ticks, every robot moves at most once per tick (seeded with "robot.seed")
+     * "simulated" : simulated clock on a timing wheel, "robot.timescale" times the wall clock (or "max")
+     * "regions" : the grid split into bands of rows, one worker per core owning each band
+     */
+    static RobotScheduler forName(String mode) {
+        switch (mode) {
+            case "thread":   return new ThreadRobotScheduler(false);
+            case "virtual":  return new ThreadRobotScheduler(true);
+            case "executor": return new ExecutorRobotScheduler(Runtime.getRuntime().availableProcessors());
+            case "tick":     return new TickEngine(Long.getLong("robot.seed", System.nanoTime()), true);
+            case "regions":  return new RegionScheduler(Runtime.getRuntime().availableProcessors());
+            case "simulated":
+                return new TimingWheelScheduler(TimingWheelScheduler.parseTimeScale(System.getProperty("robot.timescale", "1")));
+            default: throw new IllegalArgumentException("Unknown scheduler mode: " + mode);
+        }
+    }
+
+    /**
+     * Creates the scheduler selected by the "robot.scheduler" system property, virtual threads by default
+     */
+    static RobotScheduler fromSystemProperty() {
+        return forName(System.getProperty("robot.scheduler", "virtual"));
+    }
+}
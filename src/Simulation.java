@@ -0,0 +1,454 @@
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Simulation class runs the robots on a headless GridModel
+ * It owns the robots, the score, the collectible spawner and the maze generator,
+ * and does not depend on Swing, so it can run on a server without a display
+ * Scores are only counted here, never pushed: each robot counts its own pickups and the global score is a
+ * LongAdder, so robots collecting at the same time never contend, and views read them at their own pace
+ */
+public class Simulation implements Robot.CollectibleListener {
+
+    private static final int EVENT_SLOTS = 1 << 16; // Events the bus holds for a subscriber lagging behind
+
+    private static final int MAX_DRAWS = 256; // Free cells drawn before scanning for one, see randomReachableCell
+
+    private final GridModel grid;
+
+    private final PathFinder pathFinder; // Shared by all robots, its cache follows the obstacle edits
+
+    private final EventBus events = new EventBus(EVENT_SLOTS); // Changes of the grid, for the subscribers below
+
+    private final DistanceField distanceField; // Steps to the nearest collectible, read by seeking robots
+
+    private final Connectivity connectivity; // Regions of free space, spawns and new robots go where robots are
+
+    private EventLog eventLog; // Null unless enableEventLog
+    private EventBus.Subscription eventLogSubscription;
+
+    private volatile MovementPolicy policy = MovementPolicy.RANDOM; // How every robot moves without a route
+
+    private SimulationMetrics metrics; // Null until enableMetrics
+
+    private final RobotScheduler scheduler; // Decides which threads move the robots
+
+    private final Random random; // Seeds robots, collectibles and mazes so a run can be reproduced
+
+    private final ArrayList<Robot> robots = new ArrayList<>();
+
+    private final ArrayList<Robot> pool = new ArrayList<>(); // Stopped robots of earlier runs, respawned before new ones are made
+
+    private final int initialRobots; // Number of robots created by start() and reset()
+
+    private int moveDelay = 500;
+
+    private final LongAdder score = new LongAdder(); // Global score for the collectible
+
+    private ScheduledExecutorService collectibleTimer; // Timer that generates the collectibles
+
+    public Simulation(int rows, int cols, int initialRobots, RobotScheduler scheduler, long seed) {
+        this.grid = new GridModel(rows, cols);
+        grid.setEventBus(events);
+        this.pathFinder = new PathFinder(grid);
+        // Repaired off the moving threads, unless runs must only depend on their seeds
+        this.distanceField = new DistanceField(grid, scheduler.isDeterministic() ? null : events);
+        this.connectivity = new Connectivity(grid);
+        this.initialRobots = initialRobots;
+        this.scheduler = scheduler;
+        this.random = new Random(seed);
+        scheduler.setMoveDelay(moveDelay);
+    }
+
+    public GridModel getGrid() { return grid; }
+    public PathFinder getPathFinder() { return pathFinder; }
+    public DistanceField getDistanceField() { return distanceField; }
+    public Connectivity getConnectivity() { return connectivity; }
+    public MovementPolicy getMovementPolicy() { return policy; }
+    public SimulationMetrics getMetrics() { return metrics; }
+    public List<Robot> getRobots() { return robots; }
+    public long getScore() { return score.sum(); }
+    public int getMoveDelay() { return moveDelay; }
+
+    /**
+     * Creates the initial robots and starts spawning collectibles every 4 seconds
+     * (of the scheduler's clock when it has one)
+     */
+    public void start() {
+        createInitialRobots();
+        if (scheduler.scheduleEvery(4000, this::spawnCollectible)) return;
+        collectibleTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "collectible-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        collectibleTimer.scheduleAtFixedRate(this::spawnCollectible, 4, 4, TimeUnit.SECONDS);
+    }
+
+    // Stops every robot, the scheduler and the collectible timer, then closes the event log
+    public void stop() {
+        if (collectibleTimer != null) {
+            collectibleTimer.shutdownNow();
+        }
+        for (Robot robot : robots) {
+            robot.stopRobot();
+        }
+        robots.clear();
+        scheduler.shutdown();
+        distanceField.close();
+        if (eventLog != null) {
+            eventLogSubscription.close(); // Writes what is still in the bus
+            try {
+                eventLog.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the event log: " + e.getMessage());
+            }
+            eventLog = null;
+        }
+    }
+
+    /**
+     * Records every change of the grid from now on into a binary log file, replayable with EventReplay
+     * Call before start() so the log also holds the initial robots; stop() closes it
+     */
+    public void enableEventLog(Path file) throws IOException {
+        if (eventLog != null) return;
+        eventLog = new EventLog(file, grid.getRows(), grid.getCols());
+        eventLogSubscription = events.subscribe(eventLog, EventBus.ALL, true).start("event-log");
+    }
+
+    public void setPaused(boolean paused) {
+        for (Robot robot : robots) {
+            robot.setPaused(paused);
+        }
+    }
+
+    /**
+     * Stops every robot, clears the grid and the score, then creates new robots
+     * The grid is cleared lazily (GridModel.clearAll) and the robots are respawned from the pool,
+     * so a reset allocates nothing and costs O(robots + chunks), not O(cells)
+     */
+    public void reset() {
+        discardRobots();
+        // Clear grid: remove robots, obstacles and collectibles.
+        grid.clearAll();
+        score.reset();
+        createInitialRobots();
+    }
+
+    /**
+     * Saves obstacles, collectibles, robots and score to a snapshot file (see Snapshot)
+     * Robots are paused while the grid is read
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        setPaused(true);
+        try {
+            Snapshot.save(file, grid, robots, score.sum());
+        } finally {
+            setPaused(false);
+        }
+    }
+
+    /**
+     * Replaces the whole state with a snapshot saved by saveSnapshot on a grid of the same size
+     * The robots are stopped and new ones started at the saved cells with the saved colors
+     */
+    public void loadSnapshot(Path file) throws IOException {
+        discardRobots();
+        long saved = Snapshot.load(file, grid, (row, col, color) -> startRobot(obtainRobot(color, random.nextLong(),
+                row, col)));
+        score.reset();
+        score.add(saved);
+    }
+
+    /**
+     * Starts recording move and tick metrics, and publishes them over JMX (see SimulationMetrics.OBJECT_NAME)
+     */
+    public void enableMetrics() {
+        enableMetrics(true);
+    }
+
+    /**
+     * Same, publishing them only if asked (e.g. not for the many simulations of a batch run in one JVM)
+     */
+    public void enableMetrics(boolean publish) {
+        if (metrics != null) return;
+        metrics = new SimulationMetrics();
+        if (publish) metrics.register();
+        scheduler.setMetrics(metrics);
+        for (Robot robot : robots) {
+            robot.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Makes every robot head for the nearest collectible (true) or move randomly (false)
+     */
+    public void setSeeking(boolean seeking) {
+        setMovementPolicy(seeking ? MovementPolicy.SEEKING : MovementPolicy.RANDOM);
+    }
+
+    /**
+     * Changes how every robot moves when it has no route, see MovementPolicy
+     */
+    public void setMovementPolicy(MovementPolicy policy) {
+        this.policy = policy;
+        for (Robot robot : robots) {
+            robot.setMovementPolicy(policy);
+        }
+    }
+
+    // Creates and starts a robot at a random free cell in reach of the others, throws IllegalStateException if none is left
+    public Robot addRobot(Color color) {
+        return startRobot(placeRobot(color));
+    }
+
+    // A robot from the pool or a new one, placed like addRobot but not started
+    private Robot placeRobot(Color color) {
+        int cols = grid.getCols();
+        while (true) {
+            long cell = randomReachableCell();
+            if (cell < 0) throw new IllegalStateException("No free cell left for a robot");
+            try {
+                Robot robot = obtainRobot(color, random.nextLong(), (int) (cell / cols), (int) (cell % cols));
+                connectivity.robotAdded(robot);
+                return robot;
+            } catch (IllegalArgumentException taken) {
+                // A moving robot entered the cell first, drawn again
+            }
+        }
+    }
+
+    /**
+     * Returns a random free cell robots can reach (see Connectivity.isTarget) as row * cols + col, -1 if none
+     * Cells walled off from the robots are drawn again, up to MAX_DRAWS times, so a spawn costs O(1) as long
+     * as pockets out of reach hold a small share of the free cells; past that the grid is scanned for one
+     */
+    private long randomReachableCell() {
+        int cols = grid.getCols();
+        for (int draw = 0; draw < MAX_DRAWS; draw++) {
+            long cell = grid.randomFreeCell(random);
+            if (cell < 0) return -1;
+            if (connectivity.isTarget((int) (cell / cols), (int) (cell % cols))) return cell;
+        }
+        return connectivity.scanForTarget(random);
+    }
+
+    // A robot from the pool, or a new one if it is empty; same arguments and exceptions as the Robot constructor
+    private Robot obtainRobot(Color color, long seed, int row, int col) {
+        if (pool.isEmpty()) return new Robot(color, grid, moveDelay, this, seed, row, col);
+        Robot robot = pool.remove(pool.size() - 1);
+        try {
+            robot.respawn(color, moveDelay, seed, row, col);
+        } catch (RuntimeException e) {
+            pool.add(robot);
+            throw e;
+        }
+        return robot;
+    }
+
+    /**
+     * Creates and starts count robots with random colors in random free cells,
+     * returns how many were added (fewer once the grid is full)
+     */
+    public int addRobots(int count) {
+        for (int i = 0; i < count; i++) {
+            try {
+                addRobot(new Color(random.nextInt(0x1000000)));
+            } catch (IllegalStateException full) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    private Robot startRobot(Robot robot) {
+        robot.setDistanceField(distanceField);
+        robot.setMovementPolicy(policy);
+        robot.setMetrics(metrics);
+        robots.add(robot);
+        scheduler.start(robot);
+        return robot;
+    }
+
+    /**
+     * A robot and its score when the leaderboard was read
+     */
+    public static final class Standing {
+        public final Robot robot;
+        public final long score;
+
+        Standing(Robot robot, long score) {
+            this.robot = robot;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Returns the count robots that collected the most, best first (robots that collected nothing are left out)
+     * O(robots * log count), read from the thread that adds and removes robots
+     */
+    public List<Standing> getLeaderboard(int count) {
+        List<Standing> leaders = new ArrayList<>();
+        if (count <= 0) return leaders;
+        Comparator<Standing> byScore = Comparator.comparingLong(standing -> standing.score);
+        PriorityQueue<Standing> top = new PriorityQueue<>(byScore); // Worst of the best first
+        for (Robot robot : robots) {
+            long collected = robot.getCollected(); // Read once, robots keep collecting meanwhile
+            if (collected == 0 || (top.size() == count && collected <= top.peek().score)) continue;
+            top.add(new Standing(robot, collected));
+            if (top.size() > count) top.poll();
+        }
+        leaders.addAll(top);
+        leaders.sort(byScore.reversed());
+        return leaders;
+    }
+
+    // Stops every robot and puts it in the pool, leaving the robots' cells to be cleared by the caller
+    // Pooled robots keep their ids, no cell holds them until they are respawned
+    private void discardRobots() {
+        for (Robot robot : robots) {
+            robot.stopRobot();
+        }
+        // Moves already under way end before the grid is cleared, none lands in the next generation,
+        // and before the counts are retired, none is lost or counted in the robot's next life
+        for (Robot robot : robots) {
+            robot.awaitMoves();
+            if (metrics != null) metrics.untrack(robot);
+        }
+        pool.addAll(robots);
+        robots.clear();
+        connectivity.robotsChanged();
+    }
+
+    // Stops the robot and clears the cell it occupied
+    public void removeRobot(Robot robot) {
+        robot.stopRobot();
+        robot.awaitMoves(); // Its cell is read below, it must not move any more
+        grid.release(robot.getRow(), robot.getCol(), robot.getRobotId());
+        EventBus events = grid.getEventBus();
+        if (events != null) events.robotRemoved(robot.getRobotId());
+        grid.unregisterRobot(robot.getRobotId());
+        if (metrics != null) metrics.untrack(robot);
+        robots.remove(robot);
+        connectivity.robotsChanged();
+    }
+
+    public void setMoveDelay(int delay) {
+        moveDelay = delay;
+        scheduler.setMoveDelay(moveDelay);
+        for (Robot robot : robots) {
+            robot.setMoveDelay(moveDelay);
+        }
+    }
+
+    /**
+     * Sends the robot along a shortest path to (row, col), it moves randomly again once there
+     * Returns false if the cell cannot be reached
+     */
+    public boolean sendRobotTo(Robot robot, int row, int col) {
+        // Walled off cells are turned down at once, the path search would go through the whole region first
+        if (!connectivity.isReachable(robot, row, col)) return false;
+        return robot.navigateTo(pathFinder, row, col);
+    }
+
+    // Toggles an obstacle at (row, col) unless a robot stands there
+    public void toggleObstacle(int row, int col) {
+        grid.toggleObstacle(row, col);
+    }
+
+    // Returns the robot at the specified position, or null if none.
+    public Robot getRobotAt(int row, int col) {
+        return grid.getRobotAt(row, col);
+    }
+
+    // Returns the robots within radius cells of (row, col)
+    public List<Robot> getRobotsNear(int row, int col, int radius) {
+        List<Robot> near = new ArrayList<>();
+        grid.forEachRobotNear(row, col, radius, near::add);
+        return near;
+    }
+
+    /**
+     * Generates a maze with the given algorithm and seed
+     * The maze is built on a bit grid while robots keep moving, then committed to the grid in one batch
+     * with robots paused; robots keep their cells
+     */
+    public void generateMaze(MazeGenerator.Algorithm algorithm, long seed) {
+        BitSet walls = MazeGenerator.generate(grid.getRows(), grid.getCols(), algorithm, seed);
+        // Pause robot movement while the maze is committed.
+        setPaused(true);
+        grid.setObstacles(walls);
+        // Resume robot movement.
+        setPaused(false);
+    }
+
+    // Generates a maze with the given algorithm, seeded from the simulation seed
+    public void generateMaze(MazeGenerator.Algorithm algorithm) {
+        generateMaze(algorithm, random.nextLong());
+    }
+
+    /**
+     * Spawns a collectible in a random free cell robots can reach, if the grid has one
+     */
+    public void spawnCollectible() {
+        spawnCollectibles(1);
+    }
+
+    /**
+     * Spawns count collectibles in random free cells robots can reach, returns how many were placed
+     * (fewer once none is left). Each one costs O(1) (see randomReachableCell) however dense the grid
+     */
+    public int spawnCollectibles(int count) {
+        int cols = grid.getCols();
+        int placed = 0;
+        while (placed < count) {
+            long cell = randomReachableCell();
+            if (cell < 0) break;
+            // A robot may have taken the cell meanwhile, then draw again
+            if (grid.placeCollectible((int) (cell / cols), (int) (cell % cols))) placed++;
+        }
+        return placed;
+    }
+
+    // ------------------ Robot.CollectibleListener Implementation ------------------
+
+    /**
+     * Called by a robot when it collects a collectible.
+     * Increments the score, from any robot thread
+     */
+    @Override
+    public void collectibleCollected(Robot r) {
+        score.increment();
+    }
+
+    // ------------------ Helper Method to Create Initial Robots ------------------
+
+    private void createInitialRobots() {
+        // The first 5 robots get distinct colors, the others random ones.
+        Color[] colors = { Color.RED, Color.BLUE, Color.GREEN, Color.ORANGE, Color.MAGENTA };
+        for (int i = 0; i < initialRobots; i++) {
+            Color color = i < colors.length ? colors[i] : new Color(random.nextInt(0x1000000));
+            Robot robot = placeRobot(color);
+            robot.setDistanceField(distanceField);
+            robot.setMovementPolicy(policy);
+            robot.setMetrics(metrics);
+            robots.add(robot);
+        }
+        // Hand each robot to the scheduler.
+        for (Robot r : robots) {
+            scheduler.start(r);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The SimulationMetrics class counts what the robots do, published over JMX
+ * Move counters are striped per robot: each robot counts its own moves in fields next to its position,
+ * written with release stores by the one thread its move flag lets move it (see Robot.beginMove), and reading
+ * a metric sums the robots with acquire loads, so a move costs no atomic operation, no shared cache line
+ * and no extra cache miss. Latencies go into histograms of power of two
+ * buckets made of LongAdders; move latency is only sampled (one attempt out of SAMPLE_EVERY)
+ * because reading the clock costs about as much as a move.
+ */
+public class SimulationMetrics implements SimulationMetricsMBean {
+
+    public static final String OBJECT_NAME = "robot:type=SimulationMetrics";
+
+    public static final int SAMPLE_EVERY = 64; // Must be a power of two
+
+    private final Set<Robot> robots = ConcurrentHashMap.newKeySet(); // Robots whose counters are summed
+
+    private final MoveCounters retired = new MoveCounters(); // Counts of the robots that were removed, guarded by itself
+
+    private volatile MoveCounters baseline = new MoveCounters(); // Sums at the last reset
+
+    private final LongAdder ticks = new LongAdder();
+
+    private final Histogram moveLatency = new Histogram(); // Nanoseconds
+    private final Histogram tickLatency = new Histogram(); // Nanoseconds
+
+    /**
+     * Counts of values per power of two bucket: bucket b holds values in [2^(b-1), 2^b)
+     */
+    private static final class Histogram {
+        final LongAdder[] buckets = new LongAdder[64];
+        volatile long max;
+
+        Histogram() {
+            for (int b = 0; b < buckets.length; b++) buckets[b] = new LongAdder();
+        }
+
+        void record(long value) {
+            buckets[64 - Long.numberOfLeadingZeros(Math.max(0, value))].increment();
+            if (value > max) max = value; // Racy, a concurrent bigger value can be lost for a while
+        }
+
+        // Upper bound of the bucket holding the given percentile (0 - 100), 0 when empty
+        long percentile(double percentile) {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                counts[b] = buckets[b].sum();
+                total += counts[b];
+            }
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) return b == 0 ? 0 : Math.min(max, (1L << b) - 1);
+            }
+            return max;
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) bucket.reset();
+            max = 0;
+        }
+    }
+
+    // Sums of the move counters of some robots
+    private static final class MoveCounters {
+        long moves, blockedByRobot, blockedByObstacle, blockedOutOfBounds, collectibles;
+
+        void add(Robot robot) {
+            moves += robot.getMoves();
+            blockedByRobot += robot.getBlockedByRobot();
+            blockedByObstacle += robot.getBlockedByObstacle();
+            blockedOutOfBounds += robot.getBlockedOutOfBounds();
+            collectibles += robot.getCollected();
+        }
+
+        void add(MoveCounters other) {
+            moves += other.moves;
+            blockedByRobot += other.blockedByRobot;
+            blockedByObstacle += other.blockedByObstacle;
+            blockedOutOfBounds += other.blockedOutOfBounds;
+            collectibles += other.collectibles;
+        }
+
+        long attempts() {
+            return moves + blockedByRobot + blockedByObstacle + blockedOutOfBounds;
+        }
+    }
+
+    // ------------------ Recording ------------------
+
+    // Starts summing the move counters of the robot
+    public void track(Robot robot) {
+        robots.add(robot);
+    }
+
+    // Stops tracking a removed robot, its counts are kept so the totals never go down
+    public void untrack(Robot robot) {
+        if (robots.remove(robot)) {
+            synchronized (retired) {
+                retired.add(robot);
+            }
+        }
+    }
+
+    // True when this attempt (the robot's n-th) should be timed
+    public static boolean sampled(int attempt) {
+        return (attempt & (SAMPLE_EVERY - 1)) == 0;
+    }
+
+    // Records the time spent in a sampled attemptMove
+    public void moveTimed(long nanos) {
+        moveLatency.record(nanos);
+    }
+
+    public void tickCompleted(long nanos) {
+        ticks.increment();
+        tickLatency.record(nanos);
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server, replacing an earlier registration
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    // ------------------ SimulationMetricsMBean Implementation ------------------
+
+    // Sums the counters of every robot, removed ones included
+    private MoveCounters sums() {
+        MoveCounters total = new MoveCounters();
+        for (Robot robot : robots) {
+            total.add(robot);
+        }
+        synchronized (retired) {
+            total.add(retired);
+        }
+        return total;
+    }
+
+    // Sums minus the sums at the last reset
+    private MoveCounters totals() {
+        MoveCounters total = sums();
+        MoveCounters base = baseline;
+        total.moves -= base.moves;
+        total.blockedByRobot -= base.blockedByRobot;
+        total.blockedByObstacle -= base.blockedByObstacle;
+        total.blockedOutOfBounds -= base.blockedOutOfBounds;
+        total.collectibles -= base.collectibles;
+        return total;
+    }
+
+    @Override public long getMoveAttempts() { return totals().attempts(); }
+    @Override public long getMoves() { return totals().moves; }
+    @Override public long getBlockedByRobot() { return totals().blockedByRobot; }
+    @Override public long getBlockedByObstacle() { return totals().blockedByObstacle; }
+    @Override public long getBlockedOutOfBounds() { return totals().blockedOutOfBounds; }
+    @Override public long getCollectiblesCollected() { return totals().collectibles; }
+
+    @Override public long getMoveLatencyP50Nanos() { return moveLatency.percentile(50); }
+    @Override public long getMoveLatencyP99Nanos() { return moveLatency.percentile(99); }
+    @Override public long getMoveLatencyMaxNanos() { return moveLatency.max; }
+
+    @Override public long getTicks() { return ticks.sum(); }
+    @Override public long getTickLatencyP50Micros() { return tickLatency.percentile(50) / 1000; }
+    @Override public long getTickLatencyP99Micros() { return tickLatency.percentile(99) / 1000; }
+    @Override public long getTickLatencyMaxMicros() { return tickLatency.max / 1000; }
+
+    /**
+     * The robot counters belong to the moving threads and are not written here,
+     * the current sums become the new zero instead
+     */
+    @Override
+    public void reset() {
+        baseline = sums();
+        ticks.reset();
+        moveLatency.reset();
+        tickLatency.reset();
+    }
+}
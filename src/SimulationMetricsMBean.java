@@ -0,0 +1,36 @@
+/**
+ * The SimulationMetricsMBean interface is what JMX clients (jconsole, VisualVM...) see of SimulationMetrics
+ * Latencies are estimates: the upper bound of the power of two bucket holding the percentile
+ */
+public interface SimulationMetricsMBean {
+
+    long getMoveAttempts();
+
+    long getMoves();
+
+    long getBlockedByRobot();
+
+    long getBlockedByObstacle();
+
+    long getBlockedOutOfBounds();
+
+    long getCollectiblesCollected();
+
+    // Time spent in attemptMove, sampled on one attempt out of SimulationMetrics.SAMPLE_EVERY
+    long getMoveLatencyP50Nanos();
+
+    long getMoveLatencyP99Nanos();
+
+    long getMoveLatencyMaxNanos();
+
+    long getTicks();
+
+    long getTickLatencyP50Micros();
+
+    long getTickLatencyP99Micros();
+
+    long getTickLatencyMaxMicros();
+
+    // Sets every counter and histogram back to zero
+    void reset();
+}
@@ -0,0 +1,190 @@
+import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The Snapshot class saves the whole state of a grid to a compact binary file and loads it back
+ * Obstacles and collectibles are stored as bitsets, one per GridModel chunk and per layer, and only for
+ * chunks that hold something, so empty areas cost nothing and a full maze costs one bit per cell.
+ * Robots are stored as their cell and color, their ids are given again on load.
+ * Layout (little endian):
+ *  header : magic, version, chunk bits, rows, cols, score (long), robot count
+ *  chunks : index, layers (bit 0 obstacles, bit 1 collectibles), the bitsets of the layers present;
+ *           index -1 ends the list
+ *  robots : row, col, rgb
+ */
+public class Snapshot {
+
+    static final int MAGIC = 0x52475331; // "RGS1"
+
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int WORDS = GridModel.CHUNK_SIZE * GridModel.CHUNK_SIZE / 64; // Longs per layer of a chunk
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte OBSTACLES = 1;
+    private static final byte COLLECTIBLES = 2;
+
+    /**
+     * Receives the robots of a snapshot being loaded
+     */
+    public interface RobotSink {
+        void robot(int row, int col, Color color);
+    }
+
+    private Snapshot() {
+    }
+
+    // ------------------ Saving ------------------
+
+    /**
+     * Writes the grid, the robots and the score to the file
+     * Robots should not move while saving. The file is written next to its target and moved over it
+     * once complete, so an interrupted save keeps the previous snapshot
+     */
+    public static void save(Path file, GridModel grid, List<Robot> robots, long score) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(GridModel.CHUNK_BITS)
+                    .putInt(grid.getRows()).putInt(grid.getCols()).putLong(score).putInt(robots.size());
+            long[] obstacles = new long[WORDS], collectibles = new long[WORDS];
+            for (int i = 0; i < grid.getChunkCount(); i++) {
+                if (!grid.readChunkLayers(i, obstacles, collectibles)) continue;
+                byte layers = (byte) ((isEmpty(obstacles) ? 0 : OBSTACLES) | (isEmpty(collectibles) ? 0 : COLLECTIBLES));
+                if (layers == 0) continue; // Allocated, but only robots or nothing left in it
+                if (buffer.remaining() < 5 + 2 * 8 * WORDS) flush(channel, buffer);
+                buffer.putInt(i).put(layers);
+                if ((layers & OBSTACLES) != 0) putWords(buffer, obstacles);
+                if ((layers & COLLECTIBLES) != 0) putWords(buffer, collectibles);
+            }
+            if (buffer.remaining() < 4) flush(channel, buffer);
+            buffer.putInt(-1);
+            for (Robot robot : robots) {
+                if (buffer.remaining() < 12) flush(channel, buffer);
+                buffer.putInt(robot.getRow()).putInt(robot.getCol()).putInt(robot.getColor().getRGB());
+            }
+            flush(channel, buffer);
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean isEmpty(long[] words) {
+        for (long word : words) {
+            if (word != 0) return false;
+        }
+        return true;
+    }
+
+    private static void putWords(ByteBuffer buffer, long[] words) {
+        for (long word : words) buffer.putLong(word);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    // ------------------ Loading ------------------
+
+    /**
+     * Returns { rows, cols } of the grid saved in the file
+     */
+    public static int[] readSize(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, file);
+            return new int[]{ header.getInt(12), header.getInt(16) };
+        }
+    }
+
+    /**
+     * Replaces the obstacles and collectibles of the grid with the saved ones and hands the saved robots
+     * to the sink, returns the saved score
+     * The grid must have the saved size and hold no robot. A corrupt file throws an IOException and may
+     * leave the grid partly loaded
+     */
+    public static long load(Path file, GridModel grid, RobotSink robots) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, file);
+            int rows = header.getInt(12), cols = header.getInt(16);
+            if (rows != grid.getRows() || cols != grid.getCols()) {
+                throw new IOException("Snapshot is " + rows + " x " + cols + ", the grid is "
+                        + grid.getRows() + " x " + grid.getCols());
+            }
+            long score = header.getLong(20);
+            int robotCount = header.getInt(28);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip(); // Empty, filled on demand
+            long[] obstacles = new long[WORDS], collectibles = new long[WORDS];
+            grid.clearAll();
+            while (true) {
+                fill(channel, buffer, 4);
+                int index = buffer.getInt();
+                if (index == -1) break;
+                if (index < 0 || index >= grid.getChunkCount()) throw new IOException("Corrupt snapshot: chunk " + index);
+                fill(channel, buffer, 1);
+                byte layers = buffer.get();
+                getWords(channel, buffer, obstacles, (layers & OBSTACLES) != 0);
+                getWords(channel, buffer, collectibles, (layers & COLLECTIBLES) != 0);
+                grid.restoreChunk(index, obstacles, collectibles);
+            }
+            grid.restoreFinished();
+            for (int i = 0; i < robotCount; i++) {
+                fill(channel, buffer, 12);
+                int row = buffer.getInt(), col = buffer.getInt();
+                robots.robot(row, col, new Color(buffer.getInt()));
+            }
+            return score;
+        }
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel, Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header) >= 0) {
+            // Read until full or end of file
+        }
+        if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a grid snapshot: " + file);
+        }
+        if (header.getInt(4) != VERSION || header.getInt(8) != GridModel.CHUNK_BITS) {
+            throw new IOException("Unsupported snapshot version " + header.getInt(4) + ": " + file);
+        }
+        return header;
+    }
+
+    // Reads one layer, or clears it when the chunk does not store it
+    private static void getWords(FileChannel channel, ByteBuffer buffer, long[] words, boolean present)
+            throws IOException {
+        if (!present) {
+            Arrays.fill(words, 0);
+            return;
+        }
+        fill(channel, buffer, 8 * WORDS);
+        for (int w = 0; w < words.length; w++) words[w] = buffer.getLong();
+    }
+
+    // Makes sure the buffer holds at least the given number of unread bytes
+    private static void fill(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return;
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) throw new IOException("Truncated snapshot");
+        }
+        buffer.flip();
+    }
+}
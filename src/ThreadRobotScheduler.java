@@ -0,0 +1,39 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs every robot loop on its own thread
+ * With virtual threads a sleeping robot costs a few hundred bytes of heap instead of a thread stack
+ */
+public class ThreadRobotScheduler implements RobotScheduler {
+
+    private final Thread.Builder builder;
+
+    // Robots started and not yet shut down, with the life their thread runs
+    private final ConcurrentHashMap<Robot, Integer> robots = new ConcurrentHashMap<>();
+
+    public ThreadRobotScheduler(boolean virtual) {
+        builder = virtual ? Thread.ofVirtual().name("robot-", 0) : Thread.ofPlatform().name("robot-", 0);
+    }
+
+    @Override
+    public void start(Robot robot) {
+        int life = robot.getLife();
+        robots.put(robot, life);
+        builder.start(() -> {
+            try {
+                robot.run();
+            } finally {
+                // Only the entry of this life: the robot may have been respawned and started again meanwhile
+                robots.remove(robot, life);
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        for (Robot robot : robots.keySet()) {
+            robot.stopRobot();
+        }
+        robots.clear();
+    }
+}
@@ -0,0 +1,322 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * The TickEngine class moves all robots in lock step instead of letting them run freely
+ * Each tick has three phases:
+ *  1. intent : every robot picks a direction from a hash of (seed, tick, robot id), or along its route
+ *  2. resolve : robots aiming at the same cell compete, the smallest priority wins
+ *  3. commit : the winners move
+ * Every phase is split by grid stripes (bands of rows) and runs on the common ForkJoinPool.
+ * The engine has its own clock, each tick lasting the move delay; periodic tasks (collectible spawns)
+ * run between ticks on that clock, so they do not depend on the wall clock either.
+ * A robot may only target a cell that was free at the start of the tick, so swaps and chains
+ * never happen, and who wins a cell does not depend on thread order: the same seed gives the
+ * same result on any number of cores.
+ */
+public class TickEngine implements RobotScheduler {
+
+    private static final int STRIPE_ROWS = 16; // Rows per stripe, fixed so the split never depends on the core count
+
+    private static final long NO_INTENT = -1;
+
+    private final long seed;
+
+    private final boolean realTime; // Ticks on its own thread every move delay, otherwise only through runTicks
+
+    private final Set<Robot> started = ConcurrentHashMap.newKeySet(); // Robots handed to the engine
+
+    private final List<Periodic> periodics = new ArrayList<>(); // Tasks run between ticks
+
+    private volatile int tickDelay = 500;
+
+    private volatile boolean running = true;
+
+    private volatile boolean changed = false; // Robots were added since the robot list was built
+
+    private volatile SimulationMetrics metrics; // Records the tick latency when set
+
+    private Thread driver; // Runs the ticks in real time, started with the first robot or periodic task
+
+    private long tick = 0;
+
+    private long clock = 0; // Engine time in ms, advanced by the move delay every tick
+
+    // Per tick scratch, indexed like the robots array (robots sorted by id)
+    private Robot[] robots = new Robot[0];
+    private int[] ids = new int[0];         // Robot ids, to find a robot's index from the cell it holds
+    private int[] targetRow = new int[0], targetCol = new int[0];
+    private long[] priority = new long[0];
+    private boolean[] wins = new boolean[0]; // No other robot aims at the same target with a smaller priority
+    private int[] stripeOf = new int[0];    // Stripe of each robot
+    private int[] stripeOrder = new int[0]; // Robot indices grouped by stripe
+    private int[] stripeStart = new int[0]; // Start of each stripe in stripeOrder
+
+    // A task run every period ms of the engine clock
+    private static final class Periodic {
+        final Runnable task;
+        final long period;
+        long due;
+
+        Periodic(Runnable task, long period, long due) {
+            this.task = task;
+            this.period = period;
+            this.due = due;
+        }
+    }
+
+    public TickEngine(long seed, boolean realTime) {
+        this.seed = seed;
+        this.realTime = realTime;
+    }
+
+    @Override
+    public synchronized void start(Robot robot) {
+        started.add(robot);
+        changed = true;
+        startDriver();
+    }
+
+    private void startDriver() {
+        if (realTime && driver == null) {
+            driver = new Thread(this::drive, "tick-engine");
+            driver.setDaemon(true);
+            driver.start();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        for (Robot robot : started) {
+            robot.stopRobot();
+        }
+        started.clear();
+        Thread t = driver;
+        if (t != null) t.interrupt();
+    }
+
+    @Override
+    public void setMoveDelay(int delay) {
+        tickDelay = delay;
+    }
+
+    @Override
+    public synchronized boolean scheduleEvery(long period, Runnable task) {
+        period = Math.max(1, period);
+        periodics.add(new Periodic(task, period, clock + period));
+        startDriver(); // The clock runs even before the first robot
+        return true;
+    }
+
+    @Override
+    public boolean isDeterministic() {
+        return true;
+    }
+
+    @Override
+    public void setMetrics(SimulationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public synchronized long getTick() { return tick; }
+
+    // Engine time in ms: the move delays of the ticks run so far
+    public synchronized long getClock() { return clock; }
+
+    // Real time mode: one tick every move delay
+    private void drive() {
+        while (running) {
+            try {
+                Thread.sleep(tickDelay);
+            } catch (InterruptedException e) {
+                if (!running) break;
+            }
+            tick();
+        }
+    }
+
+    /**
+     * Runs a number of ticks back to back, without sleeping
+     * Returns the number of robots that moved
+     */
+    public synchronized long runTicks(int count) {
+        long moves = 0;
+        for (int i = 0; i < count; i++) {
+            moves += tick();
+        }
+        return moves;
+    }
+
+    /**
+     * Runs one tick: intent, resolve, commit, then the periodic tasks that came due
+     * Returns the number of robots that moved
+     */
+    public synchronized int tick() {
+        long start = System.nanoTime();
+        int moved = runTick();
+        SimulationMetrics m = metrics;
+        if (m != null) m.tickCompleted(System.nanoTime() - start);
+        clock += tickDelay;
+        runPeriodics();
+        return moved;
+    }
+
+    private void runPeriodics() {
+        for (int i = 0; i < periodics.size(); i++) {
+            Periodic p = periodics.get(i);
+            while (p.due <= clock && running) {
+                p.due += p.period;
+                p.task.run();
+            }
+        }
+    }
+
+    private int runTick() {
+        prepare();
+        tick++;
+        if (robots.length == 0) return 0;
+        GridModel grid = robots[0].getGrid();
+        int stripes = stripeStart.length - 1;
+
+        // Phase 1 : intents
+        IntStream.range(0, stripes).parallel().forEach(s -> {
+            for (int k = stripeStart[s]; k < stripeStart[s + 1]; k++) {
+                chooseIntent(stripeOrder[k], grid);
+            }
+        });
+
+        // Phase 2 : robots competing for the same target cell, nothing moves yet
+        IntStream.range(0, stripes).parallel().forEach(s -> {
+            for (int k = stripeStart[s]; k < stripeStart[s + 1]; k++) {
+                int i = stripeOrder[k];
+                wins[i] = priority[i] != NO_INTENT && bestClaim(i, grid);
+            }
+        });
+
+        // Phase 3 : winners move
+        return IntStream.range(0, stripes).parallel().map(s -> {
+            int count = 0;
+            for (int k = stripeStart[s]; k < stripeStart[s + 1]; k++) {
+                int i = stripeOrder[k];
+                if (wins[i] && robots[i].attemptMove(targetRow[i], targetCol[i])) {
+                    count++;
+                }
+            }
+            return count;
+        }).sum();
+    }
+
+    /**
+     * True if robot i has the smallest priority of the robots aiming at its target
+     * They can only stand on the neighbours of the target, which hold the same robots until the commit phase
+     */
+    private boolean bestClaim(int i, GridModel grid) {
+        int row = targetRow[i], col = targetCol[i];
+        for (int dir = 0; dir < 4; dir++) {
+            int r = row + (dir == 0 ? -1 : dir == 1 ? 1 : 0);
+            int c = col + (dir == 2 ? -1 : dir == 3 ? 1 : 0);
+            if (!grid.inBounds(r, c)) continue;
+            int state = grid.getState(r, c);
+            if (state <= 0 || state == ids[i]) continue;
+            int j = Arrays.binarySearch(ids, 0, robots.length, state);
+            if (j >= 0 && priority[j] != NO_INTENT && priority[j] < priority[i]
+                    && targetRow[j] == row && targetCol[j] == col) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Picks the robot's move for this tick: its target cell and its priority there
+     */
+    private void chooseIntent(int i, GridModel grid) {
+        Robot robot = robots[i];
+        priority[i] = NO_INTENT;
+        if (!robot.isRunning() || robot.isPaused() || robot.isManualControl()) return;
+
+        long hash = mix(seed ^ mix(tick ^ mix(robot.getRobotId())));
+        int newRow = robot.getRow();
+        int newCol = robot.getCol();
+        int dir = robot.chooseDirection((int) hash);
+        if (dir < 0) return; // Nowhere to go
+        switch (dir) {
+            case 0: newRow--; break;
+            case 1: newRow++; break;
+            case 2: newCol--; break;
+            case 3: newCol++; break;
+        }
+        // Only cells free at the start of the tick can be targeted
+        if (!grid.inBounds(newRow, newCol) || !GridModel.isEnterable(grid.getState(newRow, newCol))) return;
+
+        // High bits: random part so no robot always wins, low bits: id to break ties
+        long p = ((hash >>> 33) << 31) | robot.getRobotId();
+        targetRow[i] = newRow;
+        targetCol[i] = newCol;
+        priority[i] = p;
+    }
+
+    /**
+     * Refreshes the robot list (sorted by id) when robots were added, and groups robots by stripe for this tick
+     * Stopped robots are skipped by the intent phase and dropped at the next refresh
+     */
+    private void prepare() {
+        if (changed) {
+            changed = false;
+            ArrayList<Robot> list = new ArrayList<>(started.size());
+            for (Robot robot : started) {
+                if (robot.isRunning()) list.add(robot);
+                else started.remove(robot);
+            }
+            list.sort(Comparator.comparingInt(Robot::getRobotId));
+            robots = list.toArray(new Robot[0]);
+            ids = new int[robots.length];
+            for (int i = 0; i < robots.length; i++) ids[i] = robots[i].getRobotId();
+        }
+        int n = robots.length;
+        if (targetRow.length < n) {
+            targetRow = new int[n];
+            targetCol = new int[n];
+            priority = new long[n];
+            wins = new boolean[n];
+            stripeOf = new int[n];
+            stripeOrder = new int[n];
+        }
+        if (n == 0) {
+            stripeStart = new int[1];
+            return;
+        }
+
+        // Counting sort of the robots by stripe
+        int stripes = (robots[0].getGrid().getRows() + STRIPE_ROWS - 1) / STRIPE_ROWS;
+        if (stripeStart.length != stripes + 1) {
+            stripeStart = new int[stripes + 1];
+        } else {
+            Arrays.fill(stripeStart, 0);
+        }
+        for (int i = 0; i < n; i++) {
+            stripeOf[i] = robots[i].getRow() / STRIPE_ROWS;
+            stripeStart[stripeOf[i] + 1]++;
+        }
+        for (int s = 0; s < stripes; s++) {
+            stripeStart[s + 1] += stripeStart[s];
+        }
+        int[] next = Arrays.copyOf(stripeStart, stripes);
+        for (int i = 0; i < n; i++) {
+            stripeOrder[next[stripeOf[i]]++] = i;
+        }
+    }
+
+    // SplitMix64 finalizer, spreads the bits of the seed / tick / id
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,314 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The TimingWheelScheduler class moves robots on a simulated clock instead of the wall clock
+ * Every robot is an event due after its own move delay (in simulated milliseconds), so robots can have
+ * different speeds at no extra cost. Events sit in a hierarchical timing wheel: LEVELS wheels of SLOTS
+ * slots, level L slot holding the events due in one 256^L ms span. Adding an event is O(1), advancing the
+ * clock jumps over empty slots, and an event moves down one level at most LEVELS - 1 times before it fires.
+ * One thread advances the clock, so a run only depends on the seeds, never on thread timing.
+ * The clock runs timeScale times faster than the wall clock, or as fast as the events can be drained
+ * (timeScale = infinity); with timeScale = 0 it only advances through runFor, e.g. for batch runs
+ */
+public class TimingWheelScheduler implements RobotScheduler {
+
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4; // Spans 2^32 ms (49 days), later events wait in the last level
+
+    private static final long FAST_BATCH = 1000; // Simulated ms run between checks in as fast as possible mode
+
+    private static final int NONE = -1;
+
+    // Slot lists: heads[level][slot] is the first event, next[] links the events of a slot
+    private final int[][] heads = new int[LEVELS][SLOTS];
+    private final long[][] occupied = new long[LEVELS][SLOTS / 64]; // One bit per non-empty slot
+
+    // Events, indexed by event number; an event is a robot step or a periodic task
+    private Robot[] robots = new Robot[64];
+    private int[] lives = new int[64]; // Life of the robot when it was started
+    private Runnable[] tasks = new Runnable[64];
+    private long[] periods = new long[64]; // Of the tasks, robots use their move delay
+    private long[] due = new long[64];
+    private int[] next = new int[64];
+    private int events = 0;          // Event numbers handed out so far
+    private int freeEvents = NONE;   // Recycled event numbers, linked through next[]
+
+    private final ConcurrentLinkedQueue<Robot> arrivals = new ConcurrentLinkedQueue<>(); // Started, not scheduled yet
+
+    private long now = 0; // Simulated time in ms, only changed while holding the lock
+
+    private volatile long clock = 0; // Copy of now for readers outside the lock
+
+    private volatile double timeScale;
+
+    private volatile boolean running = true;
+
+    private Thread driver; // Advances the clock, started with the first robot unless timeScale is 0
+
+    /**
+     * timeScale : simulated ms per wall clock ms, Double.POSITIVE_INFINITY for as fast as possible,
+     * 0 to only advance through runFor
+     */
+    public TimingWheelScheduler(double timeScale) {
+        this.timeScale = timeScale;
+        for (int[] level : heads) Arrays.fill(level, NONE);
+    }
+
+    /**
+     * Parses a time scale: a number, or "max" for as fast as possible
+     */
+    public static double parseTimeScale(String value) {
+        return "max".equals(value) ? Double.POSITIVE_INFINITY : Double.parseDouble(value);
+    }
+
+    @Override
+    public synchronized void start(Robot robot) {
+        arrivals.add(robot);
+        if (timeScale > 0 && driver == null) {
+            driver = new Thread(this::drive, "timing-wheel");
+            driver.setDaemon(true);
+            driver.start();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        Thread t = driver;
+        if (t != null) t.interrupt();
+    }
+
+    @Override
+    public boolean isDeterministic() {
+        return true;
+    }
+
+    /**
+     * Runs the task every period simulated ms, on the clock thread
+     */
+    @Override
+    public synchronized boolean scheduleEvery(long period, Runnable task) {
+        int e = newEvent();
+        tasks[e] = task;
+        periods[e] = Math.max(1, period);
+        due[e] = now + periods[e];
+        insert(e);
+        return true;
+    }
+
+    // Simulated time in ms since the scheduler was created
+    public long getSimulatedTime() {
+        return clock;
+    }
+
+    // Changes the speed of the clock from now on
+    public void setTimeScale(double timeScale) {
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * Advances the clock by the given simulated time, firing every event due meanwhile, without sleeping
+     */
+    public synchronized void runFor(long millis) {
+        advance(now + millis);
+    }
+
+    // Follows the wall clock times timeScale, or drains the events as fast as possible
+    private void drive() {
+        double scale = Double.NaN;
+        long wallStart = 0, simStart = 0;
+        while (running) {
+            double s = timeScale;
+            if (s != scale) {
+                // Started or rescaled: measure from here
+                scale = s;
+                wallStart = System.nanoTime();
+                simStart = clock;
+            }
+            if (Double.isInfinite(scale)) {
+                synchronized (this) {
+                    advance(now + FAST_BATCH);
+                }
+                continue;
+            }
+            if (scale > 0) {
+                synchronized (this) {
+                    advance(simStart + (long) ((System.nanoTime() - wallStart) / 1e6 * scale));
+                }
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                if (!running) break;
+            }
+        }
+    }
+
+    // ------------------ Timing wheel ------------------
+
+    /**
+     * Moves the clock to target, firing the events due up to it in time order
+     */
+    private void advance(long target) {
+        Robot robot;
+        while ((robot = arrivals.poll()) != null) {
+            int e = newEvent();
+            robots[e] = robot;
+            lives[e] = robot.getLife();
+            due[e] = now + Math.max(1, robot.getMoveDelay());
+            insert(e);
+        }
+        while (now < target && running) {
+            long t = now + 1;
+            if ((t & MASK) != 0) {
+                // Jump to the next non-empty slot of level 0 before the end of its span
+                long end = Math.min(target, t | MASK);
+                long slot = nextOccupied(0, (int) (t & MASK), (int) (end & MASK));
+                if (slot < 0) {
+                    now = end;
+                    continue;
+                }
+                t = (t & ~MASK) | slot;
+                now = t;
+            } else {
+                // Level 0 empty: nothing happens before the next non-empty slot of a higher level cascades
+                long next = levelEmpty(0) ? nextCascade(t) : t;
+                if (next > t) {
+                    now = Math.min(target, next - 1);
+                    continue;
+                }
+                now = t;
+                cascade(t);
+            }
+            fire((int) (t & MASK));
+        }
+        clock = now;
+    }
+
+    // Moves the events of the higher level slots starting at t down the wheel
+    private void cascade(long t) {
+        int top = 1;
+        while (top + 1 < LEVELS && (t & ((1L << (SLOT_BITS * (top + 1))) - 1)) == 0) top++;
+        // Highest level first, its events may go down to a slot cascaded right after
+        for (int level = top; level >= 1; level--) {
+            int slot = (int) ((t >>> (SLOT_BITS * level)) & MASK);
+            int e = detach(level, slot);
+            while (e != NONE) {
+                int following = next[e];
+                insert(e);
+                e = following;
+            }
+        }
+    }
+
+    /**
+     * Earliest time from t (a multiple of SLOTS) at which a non-empty slot of level 1 or higher cascades,
+     * Long.MAX_VALUE if they are all empty
+     */
+    private long nextCascade(long t) {
+        long next = Long.MAX_VALUE;
+        for (int level = 1; level < LEVELS; level++) {
+            long span = 1L << (SLOT_BITS * level);
+            long first = (t + span - 1) & -span; // First start of a slot span of this level from t
+            int from = (int) ((first >>> (SLOT_BITS * level)) & MASK);
+            long slot = nextOccupied(level, from, MASK);
+            if (slot < 0 && from > 0) slot = nextOccupied(level, 0, from - 1);
+            if (slot >= 0) next = Math.min(next, first + ((slot - from) & MASK) * span);
+        }
+        return next;
+    }
+
+    private boolean levelEmpty(int level) {
+        for (long word : occupied[level]) {
+            if (word != 0) return false;
+        }
+        return true;
+    }
+
+    // Runs the events of level 0 slot and schedules them again
+    private void fire(int slot) {
+        clock = now; // Events see the time they fire at
+        int e = detach(0, slot);
+        while (e != NONE) {
+            int following = next[e];
+            Robot robot = robots[e];
+            if (robot != null) {
+                if (!robot.isRunning(lives[e])) {
+                    freeEvent(e); // Stopped (or respawned) robots drop out of the wheel
+                } else {
+                    robot.step();
+                    due[e] = now + Math.max(1, robot.getMoveDelay()); // Speed changes apply from the next step
+                    insert(e);
+                }
+            } else {
+                tasks[e].run();
+                due[e] = now + periods[e];
+                insert(e);
+            }
+            e = following;
+        }
+    }
+
+    // Puts the event in the slot of the level that covers its delay
+    private void insert(int e) {
+        long delay = due[e] - now;
+        int level = 0;
+        while (level + 1 < LEVELS && delay >= 1L << (SLOT_BITS * (level + 1))) level++;
+        // Beyond the last level: park in its farthest slot, it is placed again when that slot cascades
+        long when = delay >= 1L << (SLOT_BITS * LEVELS) ? now + (1L << (SLOT_BITS * LEVELS)) - 1 : due[e];
+        int slot = (int) ((when >>> (SLOT_BITS * level)) & MASK);
+        next[e] = heads[level][slot];
+        heads[level][slot] = e;
+        occupied[level][slot >>> 6] |= 1L << slot;
+    }
+
+    // Empties a slot, returns its first event
+    private int detach(int level, int slot) {
+        int e = heads[level][slot];
+        heads[level][slot] = NONE;
+        occupied[level][slot >>> 6] &= ~(1L << slot);
+        return e;
+    }
+
+    // First non-empty slot of the level in [from, to], -1 if none
+    private long nextOccupied(int level, int from, int to) {
+        long[] bits = occupied[level];
+        for (int w = from >>> 6; w <= to >>> 6; w++) {
+            long word = bits[w];
+            if (w == from >>> 6) word &= -1L << from;
+            if (word != 0) {
+                int slot = (w << 6) + Long.numberOfTrailingZeros(word);
+                return slot <= to ? slot : -1;
+            }
+        }
+        return -1;
+    }
+
+    private int newEvent() {
+        if (freeEvents != NONE) {
+            int e = freeEvents;
+            freeEvents = next[e];
+            return e;
+        }
+        if (events == due.length) {
+            int size = events * 2;
+            robots = Arrays.copyOf(robots, size);
+            lives = Arrays.copyOf(lives, size);
+            tasks = Arrays.copyOf(tasks, size);
+            periods = Arrays.copyOf(periods, size);
+            due = Arrays.copyOf(due, size);
+            next = Arrays.copyOf(next, size);
+        }
+        return events++;
+    }
+
+    private void freeEvent(int e) {
+        robots[e] = null;
+        tasks[e] = null;
+        next[e] = freeEvents;
+        freeEvents = e;
+    }
+}